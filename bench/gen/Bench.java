@@ -0,0 +1,93 @@
+package gen;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+//	One benchmark and the runner, the same idea as JMH with what the JDK has.
+//
+//	run() does a batch of "operations" and returns something computed from them, which goes to
+//	"sink" so the JIT can't remove the work. Warmup iterations first, then measured ones, each a
+//	fixed time calling run() again and again. The result is the mean time per operation with the
+//	standard deviation between iterations, and the bytes allocated per operation by the thread
+//	(ThreadMXBean, what the GC profiler of JMH reports as gc.alloc.rate.norm).
+public abstract class Bench {
+
+	static volatile long sink;
+
+	static int warmupIterations = 5;
+	static int iterations = 5;
+	static long iterationMillis = 1000;
+
+	final String name;
+	final int operations;
+
+	Bench(String name, int operations) {
+		this.name = name;
+		this.operations = operations;
+	}
+
+	void setUp() {
+	}
+
+	abstract long run();
+
+	//	ns per operation of each measured iteration, mean, deviation and bytes per operation
+	double mean;
+	double deviation;
+	double bytesPerOperation;
+
+	void measure() {
+		setUp();
+		for (int i = 0; i < warmupIterations; i++) {
+			iteration();
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long allocated = threads.getCurrentThreadAllocatedBytes();
+		long totalOperations = 0;
+
+		double[] results = new double[iterations];
+		for (int i = 0; i < iterations; i++) {
+			long calls = iteration();
+			totalOperations += calls * operations;
+			results[i] = lastNanos / (double) (calls * operations);
+		}
+		allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+
+		double sum = 0;
+		for (double r : results) {
+			sum += r;
+		}
+		mean = sum / iterations;
+		double squares = 0;
+		for (double r : results) {
+			squares += (r - mean) * (r - mean);
+		}
+		deviation = iterations > 1 ? Math.sqrt(squares / (iterations - 1)) : 0;
+		bytesPerOperation = allocated / (double) totalOperations;
+	}
+
+	long lastNanos;
+
+	private long iteration() {
+		long end = System.nanoTime() + (iterationMillis * 1_000_000);
+		long start = System.nanoTime();
+		long calls = 0;
+		long result = 0;
+		long now;
+		do {
+			result += run();
+			calls++;
+			now = System.nanoTime();
+		} while (now < end);
+		lastNanos = now - start;
+		sink = result;
+		return calls;
+	}
+
+	String result() {
+		return String.format(Locale.ROOT, "%-28s %12.2f +- %8.2f ns/op %14.0f ops/s %10.2f B/op",
+				name, mean, deviation, 1e9 / mean, bytesPerOperation);
+	}
+
+}
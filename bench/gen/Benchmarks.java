@@ -0,0 +1,311 @@
+package gen;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+//	Benchmarks of the hot paths: 68000 instructions, bus accesses by region, VDP rendering and
+//	Z80 instructions. Everything runs on ROMs and VRAM made by TestRoms, the results can be
+//	compared on any machine without games.
+//
+//	javac -encoding ISO-8859-1 -d out $(find src bench -name '*.java')
+//	java -cp out gen.Benchmarks [regex] [-wi 5] [-i 5] [-t 1000]
+//
+//	-Dbench.rom=game.bin -Dbench.state=game.bin.state renders the VRAM of a saved state instead.
+//	Operation = one instruction, one access or one line rendered.
+public class Benchmarks {
+
+	static final int INSTRUCTIONS = 10_000;
+	static final int ACCESSES = 10_000;
+	static final int LINES = 224;
+
+	static List<Bench> all() {
+		List<Bench> list = new ArrayList<>();
+
+		list.add(cpu("cpu.move", TestRoms.MOVE));
+		list.add(cpu("cpu.add", TestRoms.ADD));
+		list.add(cpu("cpu.branch", TestRoms.BRANCH));
+		list.add(cpu("cpu.movem", TestRoms.MOVEM));
+		list.add(cpu("cpu.divs", TestRoms.DIVS));
+		list.add(cpu("cpu.mix", TestRoms.MOVE, TestRoms.ADD, TestRoms.BRANCH, TestRoms.MOVEM, TestRoms.DIVS));
+
+		list.add(new BusBench("bus.read.rom") {
+			@Override
+			long run() {
+				long r = 0;
+				for (int i = 0; i < ACCESSES; i++) {
+					r += bus.read(0x200 + ((i & 0xFF) << 1), OperationSize.WORD);
+				}
+				return r;
+			}
+		});
+		list.add(new BusBench("bus.read.ram") {
+			@Override
+			long run() {
+				long r = 0;
+				for (int i = 0; i < ACCESSES; i++) {
+					r += bus.read(0xFF0000 + ((i & 0x7FFF) << 1), OperationSize.WORD);
+				}
+				return r;
+			}
+		});
+		list.add(new BusBench("bus.write.ram") {
+			@Override
+			long run() {
+				for (int i = 0; i < ACCESSES; i++) {
+					bus.write(0xFF0000 + ((i & 0x7FFF) << 1), i, OperationSize.WORD);
+				}
+				return bus.sideEffects;
+			}
+		});
+		list.add(new BusBench("bus.read.vdpStatus") {
+			@Override
+			long run() {
+				long r = 0;
+				for (int i = 0; i < ACCESSES; i++) {
+					r += bus.read(0xC00004, OperationSize.WORD);
+				}
+				return r;
+			}
+		});
+		list.add(new BusBench("bus.write.vdpData") {
+			@Override
+			void setUp() {
+				super.setUp();
+				bus.write(0xC00004, 0x8F02, OperationSize.WORD);	//	auto increment 2
+				bus.write(0xC00004, 0x40000000, OperationSize.LONG);	//	VRAM write at 0
+			}
+
+			@Override
+			long run() {
+				for (int i = 0; i < ACCESSES; i++) {
+					bus.write(0xC00000, i, OperationSize.WORD);
+				}
+				return bus.vdp.vram[0];
+			}
+		});
+		list.add(new BusBench("bus.read.ssf2") {
+			@Override
+			void setUp() {
+				emu = new Genefusto(false, false);
+				//	the title of the SSF2 entry of the cartridge database
+				int[] rom = TestRoms.bankedRom();
+				String title = "SUPER STREET FIGHTER2 The New Challengers";
+				for (int i = 0; i < title.length(); i++) {
+					rom[0x150 + i] = title.charAt(i);
+				}
+				emu.memory.rom = rom;
+				emu.powerOn();
+				bus = emu.bus;
+				//	banks 1 to 7 at A130F3-A130FF, bank 0 is fixed
+				for (int i = 1; i < 8; i++) {
+					bus.write(0xA130F1 + i * 2, 7 - i, OperationSize.BYTE);
+				}
+			}
+
+			@Override
+			long run() {
+				long r = 0;
+				for (int i = 0; i < ACCESSES; i++) {
+					r += bus.read(0x080000 + ((i * 0x1235) & 0x37FFFE), OperationSize.WORD);
+				}
+				return r;
+			}
+		});
+
+		list.add(new VdpBench("vdp.renderPlaneA") {
+			@Override
+			void line() {
+				vdp.renderPlaneA();
+			}
+		});
+		list.add(new VdpBench("vdp.renderPlaneB") {
+			@Override
+			void line() {
+				vdp.renderPlaneB();
+			}
+		});
+		list.add(new VdpBench("vdp.renderSprites") {
+			@Override
+			void line() {
+				vdp.spritesLine = 0;
+				vdp.renderSprites();
+			}
+
+			@Override
+			long run() {
+				vdp.line = 0;
+				vdp.spritesFrame = 0;
+				vdp.evaluateSprites();
+				return super.run();
+			}
+		});
+		list.add(new VdpBench("vdp.compaginateImage") {
+			@Override
+			void line() {
+			}
+
+			@Override
+			long run() {
+				vdp.compaginateImage();
+				return vdp.screenData[0][0];
+			}
+		});
+		list.add(new VdpBench("vdp.line") {
+			@Override
+			void line() {
+				vdp.run(988);
+			}
+
+			@Override
+			long run() {
+				for (int i = 0; i < LINES; i++) {
+					vdp.run(988);
+				}
+				vdp.frameDone = false;
+				return vdp.screenData[0][0];
+			}
+		});
+
+		list.add(new Bench("z80.mix", INSTRUCTIONS) {
+			Z80 z80;
+
+			@Override
+			void setUp() {
+				Genefusto emu = new Genefusto(false, false);
+				emu.memory.rom = TestRoms.rom(TestRoms.MOVE);
+				emu.powerOn();
+				z80 = emu.z80;
+				for (int i = 0; i < TestRoms.Z80_PROGRAM.length; i++) {
+					z80.memory[i] = TestRoms.Z80_PROGRAM[i];
+				}
+				z80.PC = 0;
+			}
+
+			@Override
+			long run() {
+				Z80 z = z80;
+				for (int i = 0; i < INSTRUCTIONS; i++) {
+					int opcode = z.readMemory(z.PC);
+					z.PC = (z.PC + 1) & 0xFFFF;
+					z.executeInstruction(opcode);
+				}
+				return z.A;
+			}
+		});
+
+		return list;
+	}
+
+	static Bench cpu(String name, final int[]... bodies) {
+		return new Bench(name, INSTRUCTIONS) {
+			M68000 cpu;
+
+			@Override
+			void setUp() {
+				Genefusto emu = new Genefusto(false, false);
+				emu.memory.rom = TestRoms.rom(bodies);
+				emu.powerOn();
+				cpu = emu.cpu;
+			}
+
+			@Override
+			long run() {
+				M68000 c = cpu;
+				for (int i = 0; i < INSTRUCTIONS; i++) {
+					c.runInstruction();
+				}
+				return c.PC;
+			}
+		};
+	}
+
+	abstract static class BusBench extends Bench {
+		Genefusto emu;
+		Bus bus;
+
+		BusBench(String name) {
+			super(name, ACCESSES);
+		}
+
+		@Override
+		void setUp() {
+			emu = new Genefusto(false, false);
+			emu.memory.rom = TestRoms.rom(TestRoms.MOVE);
+			emu.powerOn();
+			bus = emu.bus;
+		}
+	}
+
+	//	one run = the 224 lines of a frame
+	abstract static class VdpBench extends Bench {
+		VDP vdp;
+
+		VdpBench(String name) {
+			super(name, LINES);
+		}
+
+		@Override
+		void setUp() {
+			Genefusto emu = new Genefusto(false, false);
+			String rom = System.getProperty("bench.rom");
+			String state = System.getProperty("bench.state");
+			if (rom != null && state != null) {
+				emu.memory.rom = FileLoader.readFile(new File(rom));
+				emu.powerOn();
+				try {
+					emu.state.read(new File(state));
+				} catch (java.io.IOException e) {
+					throw new RuntimeException(e);
+				}
+			} else {
+				emu.memory.rom = TestRoms.rom(TestRoms.MOVE);
+				emu.powerOn();
+				TestRoms.fillVdp(emu.vdp);
+			}
+			vdp = emu.vdp;
+			vdp.line = 0;
+			vdp.evaluateSprites();
+		}
+
+		abstract void line();
+
+		@Override
+		long run() {
+			for (int i = 0; i < LINES; i++) {
+				vdp.line = i;
+				line();
+			}
+			return vdp.screenData[0][0];
+		}
+	}
+
+	public static void main(String[] args) {
+		Pattern filter = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "-wi":
+					Bench.warmupIterations = Integer.parseInt(args[++i]);
+					break;
+				case "-i":
+					Bench.iterations = Integer.parseInt(args[++i]);
+					break;
+				case "-t":
+					Bench.iterationMillis = Long.parseLong(args[++i]);
+					break;
+				default:
+					filter = Pattern.compile(args[i]);
+			}
+		}
+
+		for (Bench bench : all()) {
+			if (filter != null && !filter.matcher(bench.name).find()) {
+				continue;
+			}
+			bench.measure();
+			System.out.println(bench.result());
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package gen;
+
+import java.util.Random;
+
+//	ROMs and memory contents made here, so the benchmarks run anywhere without commercial games.
+//
+//	A 68000 test ROM: stack at FFFE00, entry at 200, a setup, then a body repeated REPEAT times
+//	and a BRA.W back to the body, forever. Interrupts stay masked (SR 2700 after reset).
+public class TestRoms {
+
+	static final int ENTRY = 0x200;
+	static final int REPEAT = 16;
+
+	//	moveq #7,d3; move.l #100000,d5; lea FF0000,a0
+	static final int[] SETUP = { 0x7607, 0x2A3C, 0x0001, 0x86A0, 0x41F9, 0x00FF, 0x0000 };
+
+	//	move.l d0,d1; move.w (a0),d2; move.w d2,(a0)
+	static final int[] MOVE = { 0x2200, 0x3410, 0x3082 };
+	//	add.l d1,d2; addi.w #1,d6; addq.l #1,d4
+	static final int[] ADD = { 0xD481, 0x0646, 0x0001, 0x5284 };
+	//	moveq #15,d7; dbf d7,*; tst.w d0; beq.s +2; nop; nop
+	static final int[] BRANCH = { 0x7E0F, 0x51CF, 0xFFFE, 0x4A40, 0x6702, 0x4E71, 0x4E71 };
+	//	movem.l d0-d7/a0-a6,-(sp); movem.l (sp)+,d0-d7/a0-a6
+	static final int[] MOVEM = { 0x48E7, 0xFFFE, 0x4CDF, 0x7FFF };
+	//	move.l d5,d4; divs.w d3,d4
+	static final int[] DIVS = { 0x2805, 0x89C3 };
+
+	static int[] rom(int[]... bodies) {
+		int[] rom = new int[0x10000];
+		putLong(rom, 0, 0x00FFFE00);
+		putLong(rom, 4, ENTRY);
+
+		int pc = ENTRY;
+		for (int word : SETUP) {
+			pc = putWord(rom, pc, word);
+		}
+		int loop = pc;
+		for (int i = 0; i < REPEAT; i++) {
+			for (int[] body : bodies) {
+				for (int word : body) {
+					pc = putWord(rom, pc, word);
+				}
+			}
+		}
+		pc = putWord(rom, pc, 0x6000);	//	bra.w loop
+		putWord(rom, pc, (loop - pc) & 0xFFFF);
+		return rom;
+	}
+
+	//	a big ROM for the SSF2 banks, the content is the address
+	static int[] bankedRom() {
+		int[] rom = new int[0x400000];
+		for (int i = 0; i < rom.length; i++) {
+			rom[i] = (i >> 8) & 0xFF;
+		}
+		System.arraycopy(rom(MOVE), 0, rom, 0, 0x10000);
+		return rom;
+	}
+
+	//	Z80: ld hl,1000; ld b,16; loop: add a,b; ld (hl),a; ld c,a; djnz loop; jp 0
+	static final int[] Z80_PROGRAM = { 0x21, 0x00, 0x10, 0x06, 0x10, 0x80, 0x77, 0x4F, 0x10, 0xFB, 0xC3, 0x00, 0x00 };
+
+	//	A screen of everything: H40, 64x32 planes with tiles of all palettes and both priorities,
+	//	window at the left, 80 sprites of every size linked in a list, scrolling
+	static void fillVdp(VDP vdp) {
+		Random random = new Random(0x5E6A);
+
+		vdp.registers[0x1] = 0x44;	//	display on
+		vdp.registers[0x2] = 0x30;	//	plane A C000
+		vdp.registers[0x3] = 0x2C;	//	window B000
+		vdp.registers[0x4] = 0x07;	//	plane B E000
+		vdp.registers[0x5] = 0x78;	//	sprites F000
+		vdp.registers[0x7] = 0x00;
+		vdp.registers[0xB] = 0x00;	//	full screen scroll
+		vdp.registers[0xC] = 0x81;	//	H40
+		vdp.registers[0xD] = 0x3F;	//	h scroll FC00
+		vdp.registers[0x10] = 0x01;	//	64x32
+		vdp.registers[0x11] = 0x02;
+		vdp.registers[0x12] = 0x00;
+
+		//	tiles
+		for (int i = 0; i < 0xB000; i++) {
+			vdp.vram[i] = random.nextInt(256);
+		}
+		//	name tables
+		fillPlane(vdp, 0xC000, random);
+		fillPlane(vdp, 0xE000, random);
+		fillPlane(vdp, 0xB000, random);
+		//	sprites
+		for (int s = 0; s < 80; s++) {
+			int address = 0xF000 + (s * 8);
+			int y = 128 + random.nextInt(240);
+			int x = 128 + random.nextInt(320);
+			int tile = random.nextInt(0x500) | (random.nextInt(8) << 13);
+			vdp.vram[address] = y >> 8;
+			vdp.vram[address + 1] = y & 0xFF;
+			vdp.vram[address + 2] = random.nextInt(16);
+			vdp.vram[address + 3] = s == 79 ? 0 : s + 1;
+			vdp.vram[address + 4] = tile >> 8;
+			vdp.vram[address + 5] = tile & 0xFF;
+			vdp.vram[address + 6] = x >> 8;
+			vdp.vram[address + 7] = x & 0xFF;
+		}
+		//	h scroll
+		for (int i = 0xFC00; i < 0x10000; i++) {
+			vdp.vram[i] = random.nextInt(4);
+		}
+		for (int i = 0; i < vdp.cram.length; i++) {
+			vdp.cram[i] = random.nextInt(256) & 0x0E;
+		}
+		for (int i = 0; i < vdp.vsram.length; i++) {
+			vdp.vsram[i] = random.nextInt(4);
+		}
+	}
+
+	private static void fillPlane(VDP vdp, int base, Random random) {
+		for (int i = 0; i < 64 * 32; i++) {
+			int entry = random.nextInt(0x580) | (random.nextInt(16) << 11);
+			vdp.vram[base + (i * 2)] = entry >> 8;
+			vdp.vram[base + (i * 2) + 1] = entry & 0xFF;
+		}
+	}
+
+	static int putWord(int[] rom, int address, int word) {
+		rom[address] = (word >> 8) & 0xFF;
+		rom[address + 1] = word & 0xFF;
+		return address + 2;
+	}
+
+	static void putLong(int[] rom, int address, int value) {
+		putWord(rom, address, value >>> 16);
+		putWord(rom, address + 2, value & 0xFFFF);
+	}
+
+}
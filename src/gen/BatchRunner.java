@@ -0,0 +1,252 @@
+package gen;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+
+//	Runs many headless machines with one ROM, for regression and compatibility sweeps.
+//
+//	java gen.BatchRunner rom.bin [-instances 16] [-frames 600] [-threads <cpus>] [-out batch]
+//		[-probe FF0000,FFF604...] [-shot 60,600...] [-random] [-norender]
+//
+//	The ROM is read once and every machine uses the same array, nothing else is shared.
+//	The pool has a fixed number of threads. A machine runs a slice of frames and goes back to the
+//	queue, so hundreds of them advance together instead of one after the other.
+//
+//	In <out>/<n>/ for every machine:
+//	- frames.txt	frame number and CRC32 of the screen
+//	- probes.txt	frame number and the probed RAM bytes
+//	- shot-<frame>.png
+//	-random presses random buttons, seeded with the machine number so runs can be repeated.
+//	-norender doesn't draw the screen, no frames.txt and no -shot then.
+//	A machine that throws is stopped and the error goes to the summary, the rest go on.
+public class BatchRunner {
+
+	static final int SLICE = 60;
+
+	int[] rom;
+	int instances = 16;
+	int frames = 600;
+	int threads = Runtime.getRuntime().availableProcessors();
+	File out = new File("batch");
+	int[] probes = new int[0];
+	Set<Integer> shots = new HashSet<>();
+	boolean random;
+	boolean render = true;
+
+	ExecutorService pool;
+	CountDownLatch pending;
+
+	class Instance implements Runnable {
+		final int number;
+		final Genefusto emu;
+		final File dir;
+		final Random rng;
+		final CRC32 crc = new CRC32();
+		final byte[] row = new byte[320 * 4];
+
+		PrintWriter framesOut;
+		PrintWriter probesOut;
+		int frame;
+		long lastHash;
+		Throwable error;
+
+		Instance(int number) {
+			this.number = number;
+			emu = new Genefusto(false, false);
+			emu.memory.rom = rom;
+			emu.vdp.render = render;
+			dir = new File(out, Integer.toString(number));
+			rng = random ? new Random(number) : null;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (frame == 0) {
+					emu.powerOn();
+					dir.mkdirs();
+					framesOut = new PrintWriter(new FileWriter(new File(dir, "frames.txt")));
+					if (probes.length > 0) {
+						probesOut = new PrintWriter(new FileWriter(new File(dir, "probes.txt")));
+					}
+				}
+
+				int end = Math.min(frame + SLICE, frames);
+				while (frame < end) {
+					if (rng != null && (frame & 7) == 0) {
+						randomInput();
+					}
+					emu.runFrame();
+					frame++;
+					record();
+				}
+				if (frame < frames) {
+					pool.execute(this);
+					return;
+				}
+			} catch (Throwable e) {
+				//	an Error too, finish() has to count the machine down or run() waits forever
+				error = e;
+			}
+			finish();
+		}
+
+		void record() throws IOException {
+			if (render) {
+				lastHash = screenHash();
+				framesOut.println(frame + " " + Long.toHexString(lastHash));
+			}
+			if (probesOut != null) {
+				StringBuilder sb = new StringBuilder();
+				sb.append(frame);
+				for (int address : probes) {
+					sb.append(' ').append(Integer.toHexString(emu.memory.readRamByte(address & 0xFFFF)));
+				}
+				probesOut.println(sb);
+			}
+			if (shots.contains(frame)) {
+				screenshot(new File(dir, "shot-" + frame + ".png"));
+			}
+		}
+
+		long screenHash() {
+			VDP vdp = emu.vdp;
+			int width = vdp.screenWidth();
+			int height = vdp.screenHeight();
+			crc.reset();
+			for (int y = 0; y < height; y++) {
+				int o = 0;
+				for (int x = 0; x < width; x++) {
+					int color = vdp.screenData[x][y];
+					row[o++] = (byte) (color >> 16);
+					row[o++] = (byte) (color >> 8);
+					row[o++] = (byte) color;
+				}
+				crc.update(row, 0, o);
+			}
+			return crc.getValue();
+		}
+
+		void screenshot(File file) throws IOException {
+			VDP vdp = emu.vdp;
+			int width = vdp.screenWidth();
+			int height = vdp.screenHeight();
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					image.setRGB(x, y, vdp.screenData[x][y]);
+				}
+			}
+			ImageIO.write(image, "png", file);
+		}
+
+		void randomInput() {
+			emu.joypad.setButtons(1, rng.nextInt(256));
+		}
+
+		void finish() {
+			if (framesOut != null) {
+				framesOut.close();
+			}
+			if (probesOut != null) {
+				probesOut.close();
+			}
+			pending.countDown();
+		}
+	}
+
+	void run() throws InterruptedException {
+		Instance[] all = new Instance[instances];
+		for (int i = 0; i < instances; i++) {
+			all[i] = new Instance(i);
+		}
+
+		pool = Executors.newFixedThreadPool(threads);
+		pending = new CountDownLatch(instances);
+		long start = System.nanoTime();
+		for (Instance instance : all) {
+			pool.execute(instance);
+		}
+		pending.await();
+		pool.shutdown();
+		long ms = (System.nanoTime() - start) / 1_000_000;
+
+		int failed = 0;
+		for (Instance instance : all) {
+			String result;
+			if (instance.error != null) {
+				failed++;
+				result = "ERROR at frame " + instance.frame + ": " + instance.error;
+			} else {
+				result = "ok " + Long.toHexString(instance.lastHash);
+			}
+			System.out.println(instance.number + "\t" + instance.frame + "\t" + result);
+		}
+		long total = (long) instances * frames;
+		System.out.println(instances + " machines, " + total + " frames in " + ms + "ms ("
+				+ (ms > 0 ? (total * 1000 / ms) : total) + " fps), " + failed + " failed");
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println("java gen.BatchRunner rom.bin [-instances N] [-frames N] [-threads N] [-out dir] "
+					+ "[-probe FF0000,...] [-shot 60,...] [-random] [-norender]");
+			return;
+		}
+		BatchRunner batch = new BatchRunner();
+		batch.rom = FileLoader.readFile(new File(args[0]));
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "-instances":
+					batch.instances = Integer.parseInt(args[++i]);
+					break;
+				case "-frames":
+					batch.frames = Integer.parseInt(args[++i]);
+					break;
+				case "-threads":
+					batch.threads = Integer.parseInt(args[++i]);
+					break;
+				case "-out":
+					batch.out = new File(args[++i]);
+					break;
+				case "-probe":
+					String[] addresses = args[++i].split(",");
+					batch.probes = new int[addresses.length];
+					for (int a = 0; a < addresses.length; a++) {
+						batch.probes[a] = Integer.parseInt(addresses[a], 16);
+					}
+					break;
+				case "-shot":
+					for (String frame : args[++i].split(",")) {
+						batch.shots.add(Integer.parseInt(frame));
+					}
+					break;
+				case "-random":
+					batch.random = true;
+					break;
+				case "-norender":
+					batch.render = false;
+					break;
+				default:
+					throw new RuntimeException("Unknown option " + args[i]);
+			}
+		}
+		if (!batch.render && !batch.shots.isEmpty()) {
+			throw new RuntimeException("-shot needs the screen, it can't go with -norender");
+		}
+		batch.run();
+	}
+
+}
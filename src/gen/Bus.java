@@ -1,6 +1,6 @@
 package gen;
 
-import java.util.Random;
+import java.nio.ByteBuffer;
 
 //info z80 bus
 //https://emu-docs.org/Genesis/gen-hw.txt
@@ -63,15 +63,23 @@ public class Bus {
 	Z80 z80;
 	Joypad joypad;
 	M68000 cpu;
+	Z80Hle z80Hle;
+	public InterruptController interrupts;
 	
-	boolean writeSram;
+	//	set by install, doesn't change while the game runs
+	Cartridge cartridge;
+	Mapper[] mappers = new Mapper[0];
 	
-	int[] sram = new int[0x200];
+	//	000000-3FFFFF in pages of 64KB: a page without mapper is ROM from romBase, see Mapper
+	static final int CART_PAGE_SHIFT = 16;
+	static final int CART_PAGES = 0x400000 >> CART_PAGE_SHIFT;
+	static final int CART_PAGE_MASK = (1 << CART_PAGE_SHIFT) - 1;
+	final int[] romBase = new int[CART_PAGES];
+	final Mapper[] pages = new Mapper[CART_PAGES];
 	
-	//	https://emu-docs.org/Genesis/ssf2.txt
-	boolean ssf2Mapper = false;
-	
-	int[] banks = new int[] {0, 1, 2, 3, 4, 5, 6, 7};
+	//	the Z80 takes a moment to give the bus after a request, counted in VDP cycles
+	static final int BUS_GRANT_CYCLES = 13;
+	long busRequestCycle;
 	
 	Bus(Genefusto emu, Memory memory, VDP vdp, Z80 z80, Joypad joypad, M68000 cpu) {
 		this.emu = emu;
@@ -80,127 +88,55 @@ public class Bus {
 		this.z80 = z80;
 		this.joypad = joypad;
 		this.cpu = cpu;
-		
-		initializeSram();
 	}
 	
-	void initializeSram() {
-//		sram[]	// TODO inicializar, e implementar bien la lectura/escritura (direccion / 2, y despues incrementa
-		// de a 2 bytes desde la direccion inicial (porque aumenta de a 4, dividido 2 = 2)
+	//	at power on, the mappers of the cartridge with their pages
+	void install(Cartridge cartridge) {
+		this.cartridge = cartridge;
+		mappers = cartridge.mappers(this);
+		clearPages();
+		for (Mapper mapper : mappers) {
+			mapper.reset();
+		}
+	}
+	
+	void clearPages() {
+		for (int page = 0; page < CART_PAGES; page++) {
+			romBase[page] = page << CART_PAGE_SHIFT;
+			pages[page] = null;
+		}
+	}
+	
+	void mapPages(int first, int last, Mapper mapper) {
+		for (int page = first; page <= last && page < CART_PAGES; page++) {
+			pages[page] = mapper;
+		}
+	}
+	
+	long readRom(long address, OperationSize size) {
+		return memory.readROM(romBase[(int) address >> CART_PAGE_SHIFT] + ((int) address & CART_PAGE_MASK), size);
 	}
 	
 	public long read(long address, OperationSize size) {
 		address = address & 0xFF_FFFF;	// el memory map llega hasta ahi
 		long data;
-		
-		if (ssf2Mapper && address >= 0x080000 && address <= 0x3FFFFF) {
-			if (address >= 0x080000 && address <= 0x0FFFFF) {
-				address = (banks[1] * 0x80000) + (address - 0x80000);
-			} else if (address >= 0x100000 && address <= 0x17FFFF) {
-				address = (banks[2] * 0x80000) + (address - 0x100000);
-			} else if (address >= 0x180000 && address <= 0x1FFFFF) {
-				address = (banks[3] * 0x80000) + (address - 0x180000);
-			} else if (address >= 0x200000 && address <= 0x27FFFF) {
-				address = (banks[4] * 0x80000) + (address - 0x200000);
-			} else if (address >= 0x280000 && address <= 0x2FFFFF) {
-				address = (banks[5] * 0x80000) + (address - 0x280000);
-			} else if (address >= 0x300000 && address <= 0x37FFFF) {
-				address = (banks[6] * 0x80000) + (address - 0x300000);
-			} else if (address >= 0x380000 && address <= 0x3FFFFF) {
-				address = (banks[7] * 0x80000) + (address - 0x380000);
-			}
-			
-			if (size == OperationSize.BYTE) {
-				if (address >= 0x200000 && address <= 0x20FFFF && writeSram) {
-					address = address - 0x200000;
-					if (address < 0x200) {
-						data = sram[(int) address];
-					} else {
-						data = 0;
-					}
-					
-				} else {
-					data = memory.readCartridgeByte((int)address);
-				}
-				
-			} else if (size == OperationSize.WORD) {
-				if (address >= 0x200000 && address <= 0x20FFFF && writeSram) {
-					address = address - 0x200000;
-					data  = sram[(int) address] << 8;
-					data |= sram[(int) address + 1];
-				} else {
-					data = memory.readCartridgeWord(address);
-				}
-				
-			} else {
-				if (address >= 0x200000 && address <= 0x20FFFF && writeSram) {
-					address = address - 0x200000;
-					data  = sram[(int) address] << 24;
-					data |= sram[(int) address + 1] << 16;
-					data |= sram[(int) address + 2] << 8;
-					data |= sram[(int) address + 3];
-					
-				} else {
-					data  = memory.readCartridgeWord(address) << 16;
-					data |= memory.readCartridgeWord(address + 2);
-					
-				}
-			}
-			return data;
-			
+		if (watched != null && watched[(int) address >> 12]) {
+			emu.debugger.access(address, 0, size, false);
 		}
 		
 		if (address <= 0x3F_FFFF) { // 000000-3FFFFFh : ROM
-            //0x200000 - 0x20FFFF : SRAM
-            if (address >= 0x200000 && address <= 0x20FFFF && writeSram) {
-                int alignedAddress = (int)address & 0x0000FFFF;
-                return memory.readSRAM(alignedAddress, size);
-            } else {
-                return memory.readROM((int) address, size);
-            }
-
-//			if (size == OperationSize.BYTE) {
-//				if (address >= 0x200000 && address <= 0x20FFFF && writeSram) {
-//					address = address - 0x200000;
-//					if (address < 0x200) {
-//						data = sram[(int) address];
-//					} else {
-//						data = 0;
-//					}
-//
-//				} else {
-//					data = memory.readCartridgeByte((int)address);
-//				}
-//
-//			} else if (size == OperationSize.WORD) {
-//				if (address >= 0x200000 && address <= 0x20FFFF && writeSram) {
-//					address = address - 0x200000;
-//					data  = sram[(int) address] << 8;
-//					data |= sram[(int) address + 1];
-//				} else {
-//					data = memory.readCartridgeWord(address);
-//				}
-//
-//			} else {
-//				if (address >= 0x200000 && address <= 0x20FFFF && writeSram) {
-//					address = address - 0x200000;
-//					data  = sram[(int) address] << 24;
-//					data |= sram[(int) address + 1] << 16;
-//					data |= sram[(int) address + 2] << 8;
-//					data |= sram[(int) address + 3];
-//
-//				} else {
-//					data  = memory.readCartridgeWord(address) << 16;
-//					data |= memory.readCartridgeWord(address + 2);
-//
-//				}
-//			}
-//			return data;
+			Mapper mapper = pages[(int) address >> CART_PAGE_SHIFT];
+			if (mapper != null) {
+				return mapper.read(address, size);
+			}
+			return memory.readROM(romBase[(int) address >> CART_PAGE_SHIFT] + ((int) address & CART_PAGE_MASK), size);
+			
 		} else if (address >= 0xA00000 && address <= 0xA0FFFF) {	//	Z80 addressing space
+			z80ReadCycle = vdp.cycleCounter;
 			return z80.readMemory((int) (address - 0xA00000));
 			
 		} else if (address == 0xA10000 || address == 0xA10001) {	//	Version register (read-only word-long)
-			data = emu.getRegion();
+			data = cartridge.version;
 			if (size == OperationSize.BYTE) {
 				return data;
 			} else {
@@ -238,11 +174,16 @@ public class Bus {
 			}
 			
 		} else if (address == 0xA11100 || address == 0xA11101) {	//	Z80 bus request	
-//			return (z80.busRequested && !z80.reset) ? 0 : 1;
-			return new Random().nextBoolean() ? 1: 0;
-//			return 0;	//	FIXME hacer esto bien
+			//	bit 0 clear = the 68000 has the bus, the word read has it at bit 8
+			int status = z80Hle.active ? z80Hle.busStatus() : (busGranted() ? 0 : 1);
+			if (size == OperationSize.BYTE) {
+				return status;
+			} else {
+				return (status << 8) | status;
+			}
 		
 		} else if (address == 0xC00000 || address == 0xC00002) {	// VDP Data
+			sideEffects++;
 			if (size == OperationSize.BYTE) {
 				return (vdp.readDataPort(size) >> 8);
 			} else if (size == OperationSize.WORD) {
@@ -253,6 +194,7 @@ public class Bus {
 			}
 
 		} else if (address == 0xC00001 || address == 0xC00003) {	// VDP Data
+			sideEffects++;
 			return (vdp.readDataPort(size) & 0xFF);
 			
 		} else if (address == 0xC00004 || address == 0xC00006) {	// VDP Control
@@ -274,10 +216,12 @@ public class Bus {
 			}
 			
 		} else if (address == 0xC00008 || address == 0xC00009) {
-			int v = vdp.line;
-			int h = new Random().nextInt(256);
+			sideEffects++;
+			int hv = vdp.readHVCounter();
+			int v = hv >> 8;
+			int h = hv & 0xFF;
 			if (size == OperationSize.WORD) {
-				return (v << 8) | h;	//	VDP HV counter
+				return hv;	//	VDP HV counter
 			} else if (size == OperationSize.BYTE) {
 				if (address == 0xC00008) {
 					return v;
@@ -307,7 +251,7 @@ public class Bus {
 //			}
 			
 		} else {
-			System.out.println("NOT MAPPED: " + pad4(address) + " - " + pad4(cpu.PC));
+			emu.trace.record(Trace.NOT_MAPPED, Trace.M68000, cpu.PC, -1, address, 0);
 		}
 		
 		return 0;
@@ -315,6 +259,7 @@ public class Bus {
 	
 //	https://wiki.megadrive.org/index.php?title=IO_Registers
 	public void write(long address, long data, OperationSize size) {
+		sideEffects++;
 		long addressL = (address & 0xFF_FFFF);
 		if (size == OperationSize.BYTE) {
 			data = data & 0xFF;
@@ -323,34 +268,27 @@ public class Bus {
 		} else {
 			data = data & 0xFFFF_FFFFL;
 		}
+		if (writeLog != null && writeLogCount < writeLog.length) {
+			writeLog[writeLogCount++] = ((long) size.ordinal() << 56) | (addressL << 32) | data;
+		}
+		if (watched != null && watched[(int) addressL >> 12]) {
+			emu.debugger.access(addressL, data, size, true);
+		}
 		
 		if (addressL <= 0x3FFFFF) {	//	Cartridge ROM/RAM
-			if (addressL >= 0x200000 && address <= 0x20FFFF && writeSram) {
-			    int alignedAdress = (int)address & 0x0FFFF;
-			    memory.writeSRAM(alignedAdress, (int)data, size);
-//				addressL = addressL - 0x200000;
-//
-//				if (size == OperationSize.BYTE) {
-//					if (address < 0x200) {
-//						sram[(int) addressL] = (int) data;
-//					}
-//
-//				} else if (size == OperationSize.WORD) {
-//					sram[(int) addressL] = (int) (data >> 8) & 0xFF;
-//					sram[(int) addressL + 1] = (int) data & 0xFF;
-//				} else {
-//					sram[(int) addressL] = (int) (data >> 24) & 0xFF;
-//					sram[(int) addressL + 1] = (int) (data >> 16) & 0xFF;
-//					sram[(int) addressL + 2] = (int) (data >> 8) & 0xFF;
-//					sram[(int) addressL + 3] = (int) data & 0xFF;
-//				}
-				
+			Mapper mapper = pages[(int) addressL >> CART_PAGE_SHIFT];
+			if (mapper != null) {
+				mapper.write(addressL, data, size);
 			} else {
-				System.out.println("write to rom? " + Integer.toHexString((int) addressL));
+				emu.trace.record(Trace.ROM_WRITE, Trace.M68000, cpu.PC, -1, addressL, data);
 			}
 			
 		} else if (addressL >= 0xA00000 && addressL <= 0xA0FFFF) {	//	Z80 addressing space
 			int addr = (int) (address - 0xA00000);
+			//	the HLE sees every byte that lands in Z80 RAM, a word only writes its high one
+			if (z80Hle.active) {
+				z80Hle.write(addr);
+			}
 			if (size == OperationSize.BYTE) {
 				z80.writeByte(addr, data);
 			} else if (size == OperationSize.WORD) {
@@ -358,6 +296,9 @@ public class Bus {
 			} else {
 				z80.writeWord(addr, data >> 16);
 				z80.writeWord(addr + 2, data & 0xFFFF);
+				if (z80Hle.active) {
+					z80Hle.write(addr + 2);
+				}
 			}
 			
 //			System.out.println("Z80: " + pad4(addr) + " " + pad((int) data));
@@ -381,17 +322,20 @@ public class Bus {
 			joypad.writeControlRegister3(data);
 		
 		} else if (address == 0xA10012 || address == 0xA10013) {	//	Controller 1 serial control
-			System.out.println("IMPL CONTR 1 !!");
+			emu.trace.record(Trace.IO_NOT_IMPLEMENTED, Trace.M68000, cpu.PC, -1, addressL, data);
 			
 		} else if (address == 0xA10018 || address == 0xA10019) {	//	Controller 2 serial control
-			System.out.println("IMPL CONTR 2 !!");
+			emu.trace.record(Trace.IO_NOT_IMPLEMENTED, Trace.M68000, cpu.PC, -1, addressL, data);
 		
 		} else if (address == 0xA1001E || address == 0xA1001F) {	//	Expansion port serial control
-			System.out.println("expansion port serial control !!");
+			emu.trace.record(Trace.IO_NOT_IMPLEMENTED, Trace.M68000, cpu.PC, -1, addressL, data);
 			
 		} else if (addressL == 0xA11100 || addressL == 0xA11101) {	//	Z80 bus request
 			//	To stop the Z80 and send a bus request, #$0100 must be written to $A11100.
 			if (data == 0x0100 || data == 0x1) {
+				if (!z80.busRequested) {
+					busRequestCycle = vdp.cycleCounter;
+				}
 				z80.requestBus();
 				emu.runZ80 = false;
 				
@@ -401,6 +345,9 @@ public class Bus {
 				if (!z80.reset) {
 					emu.runZ80 = true;
 				}
+				if (z80Hle.active) {
+					z80Hle.busReleased();
+				}
 				
 			}
 		} else if (addressL == 0xA11200 || addressL == 0xA11201) {	//	Z80 bus reset
@@ -413,6 +360,7 @@ public class Bus {
 					z80.initialize();
 					emu.runZ80 = false;
 //				}
+				z80Hle.driverStopped();
 				
 			//	After returning the bus after loading the new program to it's memory,
 			//	the Z80 may be let go from reset by writing #$0100 to $A11200.
@@ -425,44 +373,14 @@ public class Bus {
 //					z80.initialize();
 					emu.runZ80 = true;
 				}
+				z80Hle.driverStarted();
 			}
 			
-		} else if (addressL == 0xA130F1) {	//	Sonic 3 will write to this register to enable and disable writing to its save game memory
-			System.out.println("SRAM Register enable: " + Integer.toHexString((int) data));
-			if (data == 0) {
-				writeSram = false;
-			} else {
-				writeSram = true;
+		} else if (addressL >= 0xA13000 && addressL <= 0xA130FF) {	//	/TIME, the registers of the cartridge
+			for (Mapper mapper : mappers) {
+				mapper.writeRegister(addressL, data, size);
 			}
 			
-		} else if (addressL == 0xA130F3 && ssf2Mapper) {	//	0x080000 - 0x0FFFFF
-			data = data & 0x3F;	//	A page is specified with 6 bits (bits 7 and 6 are always 0) thus allowing a possible 64 pages (SSFII only has 10, though.)
-			banks[1] = (int) data;
-			
-		} else if (addressL == 0xA130F5 && ssf2Mapper) {	//	0x100000 - 0x17FFFF
-			data = data & 0x3F;
-			banks[2] = (int) data;
-			
-		} else if (addressL == 0xA130F7 && ssf2Mapper) {	//	0x180000 - 0x1FFFFF
-			data = data & 0x3F;
-			banks[3] = (int) data;
-			
-		} else if (addressL == 0xA130F9 && ssf2Mapper) {	//	0x200000 - 0x27FFFF
-			data = data & 0x3F;
-			banks[4] = (int) data;
-			
-		} else if (addressL == 0xA130FB && ssf2Mapper) {	//	0x280000 - 0x2FFFFF
-			data = data & 0x3F;
-			banks[5] = (int) data;
-			
-		} else if (addressL == 0xA130FD && ssf2Mapper) {	//	0x300000 - 0x37FFFF
-			data = data & 0x3F;
-			banks[6] = (int) data;
-			
-		} else if (addressL == 0xA130FF && ssf2Mapper) {	//	0x380000 - 0x3FFFFF
-			data = data & 0x3F;
-			banks[7] = (int) data;
-			
 		} else if (address == 0xA14000) {	//	VDP TMSS
 			System.out.println("TMSS: " + Integer.toHexString((int) data));
 			
@@ -501,11 +419,15 @@ public class Bus {
 			}
 			
 		} else {
-			System.out.println("WRITE NOT SUPPORTED ! " + Integer.toHexString((int) address) + " - PC: " + Integer.toHexString((int) cpu.PC));
+			emu.trace.record(Trace.WRITE_NOT_SUPPORTED, Trace.M68000, cpu.PC, -1, addressL, data);
 //			throw new RuntimeException("WRITE NOT SUPPORTED ! " + Integer.toHexString((int) address) + " - PC: " + Integer.toHexString((int) cpu.PC));
 		}
 	}
 	
+	boolean busGranted() {
+		return z80.busRequested && (vdp.cycleCounter - busRequestCycle) >= BUS_GRANT_CYCLES;
+	}
+	
 	public final String pad4(long reg) {
         String s = Long.toHexString(reg).toUpperCase();
         while (s.length() < 4) {
@@ -530,106 +452,72 @@ public class Bus {
 		throw new RuntimeException("Z80 !");
 	}
 
-	boolean hintFrameTaken = false;
-	
 	int hLinesPassed = 0;
-	private boolean vintPending;
 	boolean hintPending;
 	
-	//	https://www.gamefaqs.com/genesis/916377-genesis/faqs/9755
-	//	http://darkdust.net/writings/megadrive/initializing
-	public void checkInterrupts() {
-		if (vdp.ie0) {				//	vint on
-			if (vdp.vip == 1) {		//	level 6 interrupt
-				vintPending = true;
-			}
+	//	writes and reads that change something, the idle loop detector compares it between iterations
+	int sideEffects;
+	//	last read of the 68000 in the Z80 space and writes of the Z80 to its RAM, a side effect only
+	//	for a loop that reads there
+	long z80ReadCycle;
+	int z80RamWrites;
+	
+	//	68000 writes, size << 56 | address << 32 | data, only while Lockstep looks at them
+	long[] writeLog;
+	int writeLogCount;
+	
+	//	4KB pages with a watchpoint, null without any
+	boolean[] watched;
+	
+	//	read for the debugger and the disassembler, not seen by the watchpoints
+	long peek(long address, OperationSize size) {
+		boolean[] watched = this.watched;
+		this.watched = null;
+		try {
+			return read(address, size);
+		} finally {
+			this.watched = watched;
 		}
-		
-		if (vdp.ie1) {
-//			int intLine = hLinesPassed;
-//			if (intLine != 0 && vdp.line == hLinesPassed) {
-//				hintPending = true;
-//				hLinesPassed = vdp.registers[0xA];
-//			}
+	}
+	
+	//	a write of the game to a bank register, not reset() or loadState() of the mapper
+	void bankSwitched(int bank, int page) {
+		if (emu.telemetry != null) {
+			emu.telemetry.bankSwitch(bank, page);
 		}
-		
-		int mask = cpu.getInterruptMask();
-		
-		if (vintPending && mask < 0x6) {
-			cpu.stop = false;
-			
-			long oldPC = cpu.PC;
-			int oldSR = cpu.SR;
-			long ssp = cpu.SSP;
-			
-			ssp--;
-			write(ssp, oldPC & 0xFF, OperationSize.BYTE);
-			ssp--;
-			write(ssp, (oldPC >> 8) & 0xFF, OperationSize.BYTE);
-			ssp--;
-			write(ssp, (oldPC >> 16) & 0xFF, OperationSize.BYTE);
-			ssp--;
-			write(ssp, (oldPC >> 24), OperationSize.BYTE);
-			
-			ssp--;
-			write(ssp, oldSR & 0xFF, OperationSize.BYTE);
-			ssp--;
-			write(ssp, (oldSR >> 8) & 0xFF, OperationSize.BYTE);
-			
-			long address = readInterruptVector(0x78);
-			cpu.PC = address;
-			cpu.SR = (cpu.SR & 0xF8FF) | 0x0600;
-
-			cpu.SR |= 0x2000;	// force supervisor mode
-			
-			cpu.setALong(7, ssp);
-			
-			vdp.vip = 0;
-			
-			vintPending = false;
-			
-			return;
+	}
+	
+	public long readInterruptVector(long vector) {
+		return readRom(vector, OperationSize.LONG);
+	}
+	
+	void saveState(ByteBuffer b) {
+		for (Mapper mapper : mappers) {
+			mapper.saveState(b);
 		}
+		b.putLong(busRequestCycle);
+		b.putInt(hLinesPassed);
+		SaveState.putBoolean(b, hintPending);
+		b.putInt(interrupts.levels);
+		SaveState.putBoolean(b, z80Hle.active);
+		SaveState.putBoolean(b, emu.runZ80);
+	}
+	
+	void loadState(ByteBuffer b) {
+		clearPages();
+		for (Mapper mapper : mappers) {
+			mapper.loadState(b);
+		}
+		busRequestCycle = b.getLong();
+		hLinesPassed = b.getInt();
+		hintPending = SaveState.getBoolean(b);
+		interrupts.levels = b.getInt();
 		
-		if (hintPending && vdp.ie1 && mask < 0x4) {
-			cpu.stop = false;
-			
-			long oldPC = cpu.PC;
-			int oldSR = cpu.SR;
-			long ssp = cpu.SSP;
-			
-			//System.out.println("HINT ! Line: " + Integer.toHexString(vdp.line));
-			
-			ssp--;
-			write(ssp, oldPC & 0xFF, OperationSize.BYTE);
-			ssp--;
-			write(ssp, (oldPC >> 8) & 0xFF, OperationSize.BYTE);
-			ssp--;
-			write(ssp, (oldPC >> 16) & 0xFF, OperationSize.BYTE);
-			ssp--;
-			write(ssp, (oldPC >> 24), OperationSize.BYTE);
-			
-			ssp--;
-			write(ssp, oldSR & 0xFF, OperationSize.BYTE);
-			ssp--;
-			write(ssp, (oldSR >> 8) & 0xFF, OperationSize.BYTE);
-			
-			long address = readInterruptVector(0x70);
-			cpu.PC = address;
-			cpu.SR = (cpu.SR & 0xF8FF) | 0x0400;
-
-			cpu.SR |= 0x2000;	// force supervisor mode
-			
-			cpu.setALong(7, ssp);
-			
-			hintPending = false;
+		boolean hle = SaveState.getBoolean(b);
+		emu.runZ80 = SaveState.getBoolean(b);
+		if (hle != z80Hle.active) {
+			z80Hle.restored(hle);
 		}
 	}
-
-	public long readInterruptVector(long vector) {
-		long address  = memory.readCartridgeWord(vector) << 16;
-			 address |= memory.readCartridgeWord(vector + 2);
-		return address;
-	}
 	
 }
@@ -0,0 +1,300 @@
+package gen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+//	What the machine has to know about the cartridge, decided once when the ROM is loaded and
+//	never changed after: region, board (mapper), save memory and the quirks of the game.
+//
+//	In order, the last one wins:
+//		the header (RomHeader)
+//		the database, by CRC32 of the whole ROM, by serial, or by the start of the overseas name
+//		the region chosen in the menu or with -Dgenefusto.region=us|eu|jp
+//
+//	A line of the database is "key | settings":
+//		1a2b3c4d						CRC32
+//		serial:GM T-12056 -00			serial, as it is at H180
+//		title:OVERDRIVE 2				start of the overseas name
+//	and the settings, separated by spaces:
+//		region=us|eu|jp
+//		board=standard|ssf2|multicart
+//		save=none|sram|eeprom
+//		range=200001-203FFF				of the save memory
+//		lanes=word|even|odd				of the SRAM
+//		noidleskip						the game breaks with IdleLoopDetector
+//	-Dgenefusto.cartridges=file adds the lines of the file, after the ones in here.
+public final class Cartridge {
+
+	enum Region {
+		//	version register. US: A0A0 rev 0 o A1A1 rev 1, EU: C1C1, JP: 2020
+		JAPAN(0x20, false), USA(0xA0, false), EUROPE(0xC1, true);
+
+		final long version;
+		final boolean pal;
+
+		Region(long version, boolean pal) {
+			this.version = version;
+			this.pal = pal;
+		}
+	}
+
+	enum Board {
+		STANDARD(0x400000), SSF2(Ssf2Mapper.BANK_SIZE), MULTICART(0);
+
+		//	from 0 to here the ROM is always the same, whatever the registers say
+		final int fixed;
+
+		Board(int fixed) {
+			this.fixed = fixed;
+		}
+	}
+
+	enum Save {
+		NONE, SRAM, EEPROM
+	}
+
+	//	which bytes of the save range have memory behind
+	enum Lanes {
+		WORD, EVEN, ODD
+	}
+
+	static final String[] DATABASE = {
+		//	the mapper of the SSF2 board, https://emu-docs.org/Genesis/ssf2.txt
+		"title:SUPER STREET FIGHTER2 The New Challengers | board=ssf2",
+		"title:OVERDRIVE 2 | board=ssf2",
+	};
+
+	static final Map<String, String> entries = new HashMap<>();
+	static final List<String> titles = new ArrayList<>();
+
+	static {
+		for (String line : DATABASE) {
+			add(line);
+		}
+		String file = System.getProperty("genefusto.cartridges");
+		if (file != null) {
+			try {
+				for (String line : Files.readAllLines(new File(file).toPath())) {
+					line = line.trim();
+					if (!line.isEmpty() && !line.startsWith("#")) {
+						add(line);
+					}
+				}
+			} catch (IOException e) {
+				System.out.println("Can't read the cartridge database " + file + ": " + e.getMessage());
+			}
+		}
+	}
+
+	static void add(String line) {
+		int bar = line.indexOf('|');
+		if (bar < 0) {
+			throw new RuntimeException("Cartridge database line without settings: " + line);
+		}
+		String key = line.substring(0, bar).trim();
+		if (!key.startsWith("serial:") && !key.startsWith("title:")) {
+			key = key.toLowerCase();
+		}
+		entries.put(key, line.substring(bar + 1).trim());
+		if (key.startsWith("title:") && !titles.contains(key)) {
+			titles.add(key);
+		}
+	}
+
+	final int[] rom;
+	final RomHeader header;
+	final long crc;
+	final boolean checksumOk;
+	//	the region asked for, null if it came from the header or the database
+	final Region forced;
+	//	the database line that matched, null if none
+	final String entry;
+
+	final Region region;
+	final long version;
+	final Board board;
+	final Save save;
+	final Lanes lanes;
+	final long saveStart;
+	final long saveEnd;
+	final boolean idleSkip;
+
+	Cartridge(int[] rom, Region forced) {
+		this.rom = rom;
+		this.forced = forced;
+		header = new RomHeader(rom);
+		crc = crc(rom);
+		checksumOk = header.checksumOk(rom);
+		entry = find(crc, header);
+
+		Map<String, String> settings = new HashMap<>();
+		if (entry != null) {
+			for (String setting : entries.get(entry).split("\\s+")) {
+				int equals = setting.indexOf('=');
+				if (equals < 0) {
+					settings.put(setting, "");
+				} else {
+					settings.put(setting.substring(0, equals), setting.substring(equals + 1).toLowerCase());
+				}
+			}
+		}
+
+		if (forced != null) {
+			region = forced;
+		} else if (settings.containsKey("region")) {
+			region = region(settings.get("region"));
+		} else if (header.americas() || header.regions.isEmpty()) {
+			region = Region.USA;
+		} else if (header.japan()) {
+			region = Region.JAPAN;
+		} else if (header.europe()) {
+			region = Region.EUROPE;
+		} else {
+			region = Region.USA;
+		}
+		version = region.version;
+
+		board = settings.containsKey("board") ? Board.valueOf(settings.get("board").toUpperCase()) : Board.STANDARD;
+
+		//	'RA' F8 20 is SRAM in the odd bytes, 'RA' E8 40 is a serial EEPROM
+		Save save = Save.NONE;
+		Lanes lanes = Lanes.WORD;
+		long start = 0;
+		long end = 0;
+		if (header.hasSram) {
+			save = RomHeader.word(rom, 0x1B2) == 0xE840 ? Save.EEPROM : Save.SRAM;
+			int type = (header.sramType >> 3) & 3;
+			lanes = type == 3 ? Lanes.ODD : type == 2 ? Lanes.EVEN : Lanes.WORD;
+			start = header.sramStart;
+			end = header.sramEnd;
+		}
+		if (settings.containsKey("save")) {
+			save = Save.valueOf(settings.get("save").toUpperCase());
+		}
+		if (settings.containsKey("lanes")) {
+			lanes = Lanes.valueOf(settings.get("lanes").toUpperCase());
+		}
+		if (settings.containsKey("range")) {
+			String[] range = settings.get("range").split("-");
+			start = Long.parseLong(range[0], 16);
+			end = Long.parseLong(range[1], 16);
+		}
+		if (save != Save.NONE && (end < start || end > 0xFFFFFF)) {
+			System.out.println("Save range " + Trace.hex(start, 6) + "-" + Trace.hex(end, 6) + " makes no sense, ignored");
+			save = Save.NONE;
+		}
+		this.save = save;
+		this.lanes = lanes;
+		saveStart = save == Save.NONE ? 0 : start;
+		saveEnd = save == Save.NONE ? 0 : end;
+
+		idleSkip = !settings.containsKey("noidleskip");
+	}
+
+	//	new ones at every power on, they have the registers
+	Mapper[] mappers(Bus bus) {
+		List<Mapper> mappers = new ArrayList<>();
+		if (board == Board.SSF2) {
+			mappers.add(new Ssf2Mapper(bus));
+		} else if (board == Board.MULTICART) {
+			mappers.add(new MulticartMapper(bus));
+		}
+		if (save == Save.EEPROM) {
+			mappers.add(new EepromMapper(bus, saveStart));
+		} else if (save == Save.SRAM) {
+			mappers.add(new SramMapper(bus, saveStart, saveEnd, lanes, rom.length));
+		} else if (board == Board.STANDARD) {
+			//	nothing in the header, 64KB at 200000 as always: there if the ROM is smaller, else
+			//	when the game asks for it with A130F1
+			mappers.add(new SramMapper(bus, 0x200000, 0x20FFFF, Lanes.WORD, rom.length));
+		}
+		return mappers.toArray(new Mapper[mappers.size()]);
+	}
+
+	static String find(long crc, RomHeader header) {
+		String key = Trace.hex(crc, 8).toLowerCase();
+		if (entries.containsKey(key)) {
+			return key;
+		}
+		key = "serial:" + header.serial;
+		if (entries.containsKey(key)) {
+			return key;
+		}
+		for (String title : titles) {
+			if (header.overseasName.startsWith(title.substring("title:".length()))) {
+				return title;
+			}
+		}
+		return null;
+	}
+
+	static Region region(String name) {
+		if (name == null) {
+			return null;
+		}
+		switch (name.toLowerCase()) {
+			case "us":
+			case "usa":
+				return Region.USA;
+			case "eu":
+			case "europe":
+				return Region.EUROPE;
+			case "jp":
+			case "japan":
+				return Region.JAPAN;
+			default:
+				throw new RuntimeException("Unknown region " + name + ", it's us, eu or jp");
+		}
+	}
+
+	static long crc(int[] rom) {
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[64 * 1024];
+		for (int i = 0; i < rom.length; i += chunk.length) {
+			int n = Math.min(chunk.length, rom.length - i);
+			for (int j = 0; j < n; j++) {
+				chunk[j] = (byte) rom[i + j];
+			}
+			crc.update(chunk, 0, n);
+		}
+		return crc.getValue();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(header).append('\n');
+		sb.append("CRC32 ").append(Trace.hex(crc, 8));
+		if (!checksumOk) {
+			sb.append(", checksum ").append(Trace.hex(RomHeader.checksum(rom), 4))
+				.append(" but the header says ").append(Trace.hex(header.checksum, 4));
+		}
+		sb.append(", ").append(region);
+		if (forced != null) {
+			sb.append(" (forced)");
+		}
+		if (board != Board.STANDARD) {
+			sb.append(", board ").append(board);
+		}
+		if (save != Save.NONE) {
+			sb.append(", ").append(save).append(' ').append(Trace.hex(saveStart, 6)).append('-').append(Trace.hex(saveEnd, 6));
+			if (save == Save.SRAM) {
+				sb.append(' ').append(lanes);
+			}
+		}
+		if (!idleSkip) {
+			sb.append(", no idle skip");
+		}
+		if (entry != null) {
+			sb.append(", from the database: ").append(entry);
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,522 @@
+package gen;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+//	-Dgenefusto.debug=true, commands on the console:
+//
+//	b addr / bd addr / bl	68000 breakpoint, delete, list
+//	w addr [len] [r|w|rw]	watchpoint, wd addr deletes it
+//	c			continue		p	pause
+//	s [n]			68000 step		z [n]	Z80 step
+//	n			step over (JSR, BSR, TRAP)	nz	Z80 step over (CALL, RST)
+//	u addr			run to the 68000 address	uz addr	run to the Z80 address
+//	r			registers		d [addr] [n]	disassemble		m addr [n]	memory
+//
+//	Nothing is checked per instruction while nothing is armed. A breakpoint replaces, in a copy of
+//	M68000.instructions, the handler of the opcode at its address with one that compares the PC
+//	first; the CPU runs the copy only while there is a breakpoint. A watchpoint marks its 4KB
+//	pages in Bus.watched, the only cost without one is Bus looking at a null array. After a hit
+//	every handler is the comparing one, so it stops before the next 68000 instruction.
+//
+//	The stop is an exception from the handler, before the instruction runs: the Z80 already did
+//	its part of the step, so going on starts with the rest of that step (runCpu) and not with a
+//	new one, the machine sees the same order of events as without the debugger.
+//	The commands run on the emulation thread, between frames or while it is stopped.
+public class Debugger {
+
+	static final int MAX_BREAKPOINTS = 64;
+	static final int MAX_WATCHPOINTS = 16;
+	//	frames a step or a run to a Z80 address goes on before giving up
+	static final int MAX_RUN_FRAMES = 600;
+
+	static class Break extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Break() {
+			super("break", null, false, false);
+		}
+	}
+
+	static final Break BREAK = new Break();
+
+	static final int READ = 1;
+	static final int WRITE = 2;
+
+	final Genefusto emu;
+
+	final int[] breakpoints = new int[MAX_BREAKPOINTS];
+	int breakpointCount;
+	//	run to, step over
+	int temporary = -1;
+	//	every instruction breaks, after a watchpoint hit
+	boolean breakAll;
+	//	the first check at this PC doesn't break, to go on from a breakpoint
+	long skipPc = -1;
+
+	final int[] watchStart = new int[MAX_WATCHPOINTS];
+	final int[] watchEnd = new int[MAX_WATCHPOINTS];
+	final int[] watchKind = new int[MAX_WATCHPOINTS];
+	int watchCount;
+
+	//	the table of the CPU without the debugger, null while not armed
+	Instruction[] original;
+
+	//	the Z80 ran, the 68000 didn't, the step has to be finished
+	boolean pendingStep;
+	boolean stopped;
+	final BlockingQueue<String> commands = new LinkedBlockingQueue<>();
+
+	int listAddress = 0x200;
+	//	frames ended by the steps of the last command
+	int frames;
+
+	final Instruction checking = new Instruction() {
+		@Override
+		public void run(int opcode) {
+			if (shouldBreak(emu.cpu.PC)) {
+				throw BREAK;
+			}
+			original[opcode].run(opcode);
+		}
+	};
+
+	Debugger(Genefusto emu) {
+		this.emu = emu;
+	}
+
+	static Debugger create(Genefusto emu) {
+		if (!Boolean.getBoolean("genefusto.debug")) {
+			return null;
+		}
+		Debugger debugger = new Debugger(emu);
+		debugger.startConsole();
+		return debugger;
+	}
+
+	void startConsole() {
+		Thread console = new Thread("debugger") {
+			@Override
+			public void run() {
+				BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+				try {
+					String line;
+					while ((line = in.readLine()) != null) {
+						commands.add(line.trim());
+					}
+				} catch (IOException e) {
+					System.out.println("Debugger console closed: " + e.getMessage());
+				}
+			}
+		};
+		console.setDaemon(true);
+		console.start();
+	}
+
+	boolean shouldBreak(long pc) {
+		boolean skip = pc == skipPc;
+		skipPc = -1;
+		if (skip) {
+			return false;
+		}
+		if (breakAll || pc == temporary) {
+			return true;
+		}
+		for (int i = 0; i < breakpointCount; i++) {
+			if (breakpoints[i] == pc) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//	Bus, an access to a watched page
+	void access(long address, long data, OperationSize size, boolean write) {
+		int a = (int) address & 0xFF_FFFF;
+		if (a >= 0xE00000) {
+			a = 0xFF0000 | (a & 0xFFFF);
+		}
+		int end = a + (size == OperationSize.BYTE ? 1 : size == OperationSize.WORD ? 2 : 4);
+		for (int i = 0; i < watchCount; i++) {
+			if (a < watchEnd[i] && end > watchStart[i] && (watchKind[i] & (write ? WRITE : READ)) != 0) {
+				System.out.println("watch " + hex(a, 6) + (write ? " write " + hex(data, 2) : " read") + " pc " + hex(emu.cpu.PC, 6));
+				breakAll = true;
+				arm();
+				return;
+			}
+		}
+	}
+
+	//	instead of Genefusto.runFrame, returns when the frame is done
+	void runFrame() {
+		commands();
+		for (;;) {
+			while (stopped) {
+				try {
+					command(commands.take());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			try {
+				finishStep();
+				emu.runFrame();
+				return;
+			} catch (Break b) {
+				pendingStep = true;
+				stop(breakAll ? "watchpoint" : "breakpoint");
+			}
+		}
+	}
+
+	private void finishStep() {
+		if (pendingStep) {
+			pendingStep = false;
+			skipPc = emu.cpu.PC;
+			emu.runCpu();
+			skipPc = -1;
+		}
+	}
+
+	//	one step of the machine while stopped, false on a break or after MAX_RUN_FRAMES
+	private boolean step() {
+		try {
+			if (emu.vdp.frameDone) {
+				emu.runFrame();	//	only ends it
+				if (++frames > MAX_RUN_FRAMES) {
+					System.out.println("nothing after " + MAX_RUN_FRAMES + " frames");
+					return false;
+				}
+			}
+			if (pendingStep) {
+				finishStep();
+			} else {
+				skipPc = emu.cpu.PC;
+				emu.step();
+				skipPc = -1;
+			}
+		} catch (Break b) {
+			pendingStep = true;
+			stop(breakAll ? "watchpoint" : "breakpoint");
+			return false;
+		}
+		return true;
+	}
+
+	private void stop(String reason) {
+		stopped = true;
+		breakAll = false;
+		temporary = -1;
+		arm();
+		System.out.println(reason + ": " + hex(emu.cpu.PC, 6) + "  " + emu.disassembler.disassemble(emu.cpu.PC));
+		listAddress = (int) emu.cpu.PC;
+	}
+
+	private void go() {
+		stopped = false;
+		skipPc = emu.cpu.PC;
+		arm();
+	}
+
+	//	the CPU runs the checking table only while something is armed
+	void arm() {
+		M68000 cpu = emu.cpu;
+		if (original == null) {
+			if (breakpointCount == 0 && temporary < 0 && !breakAll) {
+				return;
+			}
+			original = cpu.instructions;
+		}
+		if (breakpointCount == 0 && temporary < 0 && !breakAll) {
+			cpu.instructions = original;
+			original = null;
+			return;
+		}
+		Instruction[] table = original.clone();
+		if (breakAll) {
+			for (int i = 0; i < table.length; i++) {
+				if (table[i] != null) {
+					table[i] = checking;
+				}
+			}
+		} else {
+			for (int i = 0; i < breakpointCount; i++) {
+				patch(table, breakpoints[i]);
+			}
+			if (temporary >= 0) {
+				patch(table, temporary);
+			}
+		}
+		cpu.instructions = table;
+	}
+
+	//	the opcode there now, RAM code or a bank switch needs a new arm()
+	private void patch(Instruction[] table, int address) {
+		int opcode = read(address);
+		if (opcode >= 0 && table[opcode] != null) {
+			table[opcode] = checking;
+		}
+	}
+
+	private void commands() {
+		String command;
+		while ((command = commands.poll()) != null) {
+			command(command);
+		}
+	}
+
+	void command(String line) {
+		String[] args = line.split("\\s+");
+		frames = 0;
+		try {
+			switch (args[0]) {
+				case "c":
+					go();
+					break;
+				case "p":
+					if (!stopped) {
+						stop("paused");
+					}
+					break;
+				case "s": {
+					int n = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+					M68000 cpu = emu.cpu;
+					for (int i = 0; i < n; i++) {
+						long count = emu.cpuInstructions;
+						while (emu.cpuInstructions == count && step()) {
+						}
+						if (emu.cpuInstructions == count) {
+							return;
+						}
+					}
+					stop("step");
+					if (cpu.stop) {
+						System.out.println("stopped, waiting for an interrupt");
+					}
+					break;
+				}
+				case "z": {
+					int n = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+					if (!emu.runZ80 || emu.bus.z80Hle.active) {
+						System.out.println("the Z80 is not running");
+						break;
+					}
+					for (int i = 0; i < n; i++) {
+						long count = emu.z80Instructions;
+						while (emu.z80Instructions == count && step()) {
+						}
+						if (emu.z80Instructions == count) {
+							return;
+						}
+					}
+					System.out.println("z80 " + hex(emu.z80.PC, 4));
+					break;
+				}
+				case "n": {
+					long pc = emu.cpu.PC;
+					int opcode = read((int) pc);
+					if ((opcode & 0xFFC0) == 0x4E80 || (opcode & 0xFF00) == 0x6100 || (opcode & 0xFFF0) == 0x4E40) {
+						temporary = (int) pc + emu.disassembler.length(pc);
+						go();
+					} else {
+						command("s");
+					}
+					break;
+				}
+				case "nz": {
+					if (!emu.runZ80 || emu.bus.z80Hle.active) {
+						System.out.println("the Z80 is not running");
+						break;
+					}
+					//	only Z80 RAM has code, the window to the 68000 is not read
+					int pc = emu.z80.PC;
+					int opcode = pc < 0x2000 ? emu.z80.memory[pc] : -1;
+					if (opcode == 0xCD || (opcode >= 0 && (opcode & 0xC7) == 0xC4)) {	//	CALL nn, CALL cc,nn
+						command("uz " + hex((pc + 3) & 0xFFFF, 4));
+					} else if (opcode >= 0 && (opcode & 0xC7) == 0xC7) {	//	RST p
+						command("uz " + hex((pc + 1) & 0xFFFF, 4));
+					} else {
+						command("z");
+					}
+					break;
+				}
+				case "u":
+					temporary = parse(args[1]);
+					go();
+					break;
+				case "uz": {
+					int target = parse(args[1]);
+					while (emu.z80.PC != target && step()) {
+					}
+					if (emu.z80.PC == target) {
+						System.out.println("z80 " + hex(target, 4));
+					}
+					break;
+				}
+				case "b":
+					if (breakpointCount < MAX_BREAKPOINTS) {
+						breakpoints[breakpointCount++] = parse(args[1]);
+						arm();
+					}
+					break;
+				case "bd": {
+					int address = parse(args[1]);
+					for (int i = 0; i < breakpointCount; i++) {
+						if (breakpoints[i] == address) {
+							breakpoints[i] = breakpoints[--breakpointCount];
+							break;
+						}
+					}
+					arm();
+					break;
+				}
+				case "bl":
+					for (int i = 0; i < breakpointCount; i++) {
+						System.out.println(hex(breakpoints[i], 6) + "  " + emu.disassembler.disassemble(breakpoints[i]));
+					}
+					break;
+				case "w":
+					watch(parse(args[1]), args.length > 2 ? parse(args[2]) : 1,
+							args.length > 3 ? (args[3].equals("r") ? READ : args[3].equals("w") ? WRITE : READ | WRITE) : WRITE);
+					break;
+				case "wd":
+					unwatch(parse(args[1]));
+					break;
+				case "r":
+					registers();
+					break;
+				case "d": {
+					int address = args.length > 1 ? parse(args[1]) : listAddress;
+					int n = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+					for (int i = 0; i < n; i++) {
+						System.out.println(hex(address, 6) + "  " + emu.disassembler.disassemble(address));
+						address += emu.disassembler.length(address);
+					}
+					listAddress = address;
+					break;
+				}
+				case "m": {
+					int address = parse(args[1]) & ~1;
+					int n = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+					StringBuilder sb = new StringBuilder();
+					for (int i = 0; i < n; i += 2) {
+						if (i % 16 == 0) {
+							sb.append(i == 0 ? "" : "\n").append(hex(address + i, 6)).append(' ');
+						}
+						int word = read(address + i);
+						sb.append(' ').append(word < 0 ? "----" : hex(word, 4));
+					}
+					System.out.println(sb);
+					break;
+				}
+				case "":
+					break;
+				default:
+					System.out.println("Unknown command " + args[0]);
+			}
+		} catch (RuntimeException e) {
+			if (e instanceof Break) {
+				throw e;
+			}
+			System.out.println("Bad command: " + line + " (" + e.getMessage() + ")");
+		}
+	}
+
+	void watch(int address, int length, int kind) {
+		if (watchCount == MAX_WATCHPOINTS) {
+			return;
+		}
+		if (address >= 0xE00000) {
+			address = 0xFF0000 | (address & 0xFFFF);
+		}
+		watchStart[watchCount] = address;
+		watchEnd[watchCount] = address + length;
+		watchKind[watchCount] = kind;
+		watchCount++;
+		pages();
+	}
+
+	void unwatch(int address) {
+		for (int i = 0; i < watchCount; i++) {
+			if (watchStart[i] == address) {
+				watchCount--;
+				watchStart[i] = watchStart[watchCount];
+				watchEnd[i] = watchEnd[watchCount];
+				watchKind[i] = watchKind[watchCount];
+				break;
+			}
+		}
+		pages();
+	}
+
+	//	the 4KB pages Bus sends here, the RAM in all its mirrors
+	private void pages() {
+		if (watchCount == 0) {
+			emu.bus.watched = null;
+			return;
+		}
+		boolean[] watched = new boolean[0x1000];
+		for (int i = 0; i < watchCount; i++) {
+			for (int a = watchStart[i] & ~0xFFF; a < watchEnd[i]; a += 0x1000) {
+				if (a >= 0xFF0000) {
+					for (int mirror = 0xE00000; mirror < 0x1000000; mirror += 0x10000) {
+						watched[(mirror | (a & 0xFFFF)) >> 12] = true;
+					}
+				} else {
+					watched[a >> 12] = true;
+				}
+			}
+		}
+		emu.bus.watched = watched;
+	}
+
+	private void registers() {
+		M68000 cpu = emu.cpu;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 8; i++) {
+			sb.append('D').append(i).append(' ').append(hex(cpu.getDLong(i), 8)).append(i == 3 || i == 7 ? '\n' : ' ');
+		}
+		for (int i = 0; i < 8; i++) {
+			sb.append('A').append(i).append(' ').append(hex(cpu.getALong(i), 8)).append(i == 3 || i == 7 ? '\n' : ' ');
+		}
+		sb.append("PC ").append(hex(cpu.PC, 6)).append(" SR ").append(hex(cpu.SR, 4))
+			.append(" SSP ").append(hex(cpu.SSP, 8)).append(" USP ").append(hex(cpu.USP, 8)).append('\n');
+		Z80 z80 = emu.z80;
+		sb.append("Z80 AF ").append(hex((z80.A << 8) | z80.F, 4)).append(" BC ").append(hex((z80.B << 8) | z80.C, 4))
+			.append(" DE ").append(hex((z80.D << 8) | z80.E, 4)).append(" HL ").append(hex((z80.H << 8) | z80.L, 4))
+			.append(" IX ").append(hex(z80.IX, 4)).append(" IY ").append(hex(z80.IY, 4))
+			.append(" SP ").append(hex(z80.SP, 4)).append(" PC ").append(hex(z80.PC, 4));
+		System.out.println(sb);
+	}
+
+	//	ROM and RAM only, the rest has side effects, -1
+	private int read(int address) {
+		address &= 0xFF_FFFF;
+		if (address <= 0x3FFFFF || address >= 0xE00000) {
+			return (int) emu.bus.peek(address, OperationSize.WORD);
+		}
+		return -1;
+	}
+
+	static int parse(String s) {
+		if (s.startsWith("$")) {
+			s = s.substring(1);
+		} else if (s.startsWith("0x")) {
+			s = s.substring(2);
+		}
+		return Integer.parseInt(s, 16);
+	}
+
+	static String hex(long value, int digits) {
+		String s = Long.toHexString(value).toUpperCase();
+		while (s.length() < digits) {
+			s = "0" + s;
+		}
+		return s;
+	}
+
+}
@@ -0,0 +1,617 @@
+package gen;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+//	68000 disassembler for the trace, the debugger and the profiler.
+//
+//	Which instruction an opcode is comes from the table the CPU runs, M68000.instructions: the
+//	handler of the opcode is an anonymous class of ADDQ, MOVEM... so the legal opcodes and their
+//	names are the ones the generate() of each instruction registered, nothing is decoded twice.
+//	What is left here is the operand syntax, the size and the extension words of each one.
+//
+//	The ROM doesn't change, the text and length of each instruction in it are kept by PC: a
+//	second look at the same address is an array read. RAM, the pages of a mapper and the banks
+//	that can switch (Cartridge.Board.fixed) are decoded every time. disassembleAll() goes through
+//	the whole ROM once, at load, the cache is then full for static analysis.
+//
+//	java gen.Disassembler rom.bin [-from 200] [-count 100]
+public class Disassembler {
+
+	static final String[] CONDITIONS = { "T", "F", "HI", "LS", "CC", "CS", "NE", "EQ", "VC", "VS", "PL", "MI", "GE", "LT", "GT", "LE" };
+	static final String[] SHIFTS = { "AS", "LS", "ROX", "RO" };
+	static final char[] SIZES = { 'B', 'W', 'L' };
+
+	final Genefusto emu;
+
+	//	the class of the handler of each opcode, null if illegal
+	String[] names;
+
+	//	by PC / 2 for the ROM, length 0 if not decoded yet
+	String[] cache;
+	byte[] lengths;
+	int cacheEnd;
+	long hits;
+	long misses;
+
+	//	address of the next extension word while decoding, and the text
+	private int next;
+	private final StringBuilder sb = new StringBuilder(64);
+
+	Disassembler(Genefusto emu) {
+		this.emu = emu;
+	}
+
+	//	after loading a ROM and initializing the CPU
+	void reset() {
+		names = null;
+		cache = null;
+	}
+
+	private void init() {
+		names = new String[0x10000];
+		Instruction[] instructions = emu.cpu.instructions;
+		if (emu.debugger != null && emu.debugger.original != null) {
+			instructions = emu.debugger.original;
+		}
+		//	an instruction has a handler per size, shared by all its opcodes
+		Map<Instruction, String> handlers = new IdentityHashMap<>();
+		for (int i = 0; i < names.length; i++) {
+			Instruction instruction = instructions[i];
+			if (instruction != null) {
+				String name = handlers.get(instruction);
+				if (name == null) {
+					name = handler(instruction).intern();
+					handlers.put(instruction, name);
+				}
+				names[i] = name;
+			}
+		}
+		int end = Math.min(emu.memory.rom.length, emu.cartridge.board.fixed);
+		cacheEnd = end & ~1;
+		cache = new String[cacheEnd / 2];
+		lengths = new byte[cacheEnd / 2];
+	}
+
+	//	the handlers are anonymous classes, the name is the one of the instruction class around
+	static String handler(Instruction instruction) {
+		if (instruction == null) {
+			return "?";
+		}
+		Class<?> type = instruction.getClass();
+		while (type.isAnonymousClass() && type.getEnclosingClass() != null) {
+			type = type.getEnclosingClass();
+		}
+		return type.getSimpleName();
+	}
+
+	String disassemble(long address) {
+		int pc = (int) address & 0xFF_FFFE;
+		if (cache == null) {
+			init();
+		}
+		if (pc < cacheEnd && !sram(pc)) {
+			int i = pc >> 1;
+			if (lengths[i] != 0) {
+				hits++;
+				return cache[i];
+			}
+			misses++;
+			String text = decode(pc);
+			cache[i] = text;
+			lengths[i] = (byte) (next - pc);
+			return text;
+		}
+		return decode(pc);
+	}
+
+	//	bytes of the instruction at the address, with the extension words
+	int length(long address) {
+		int pc = (int) address & 0xFF_FFFE;
+		disassemble(pc);
+		if (pc < cacheEnd && !sram(pc)) {
+			return lengths[pc >> 1];
+		}
+		return next - pc;
+	}
+
+	//	linear sweep of the ROM from the entry point, returns the instructions decoded
+	int disassembleAll() {
+		if (cache == null) {
+			init();
+		}
+		int count = 0;
+		int pc = 0x200;
+		while (pc < cacheEnd) {
+			pc += length(pc);
+			count++;
+		}
+		return count;
+	}
+
+	//	a page with SRAM or EEPROM in it
+	private boolean sram(int pc) {
+		return emu.bus.pages[pc >> Bus.CART_PAGE_SHIFT] != null;
+	}
+
+	private int word(int address) {
+		address &= 0xFF_FFFF;
+		if (address <= 0x3FFFFF || address >= 0xE00000) {
+			return (int) emu.bus.peek(address, OperationSize.WORD);
+		}
+		return 0;
+	}
+
+	private int extension() {
+		int w = word(next);
+		next += 2;
+		return w;
+	}
+
+	private String decode(int pc) {
+		next = pc + 2;
+		int op = word(pc);
+		StringBuilder sb = this.sb;
+		sb.setLength(0);
+		String name = names[op];
+		if (name == null) {
+			sb.append("DC.W ");
+			hex(op, 4);
+			return sb.toString();
+		}
+		int ea = op & 0x3F;
+		int mode = (op >> 3) & 7;
+		int reg = op & 7;
+		int rx = (op >> 9) & 7;
+		int s = (op >> 6) & 3;
+
+		switch (name) {
+			case "ORI":
+			case "ANDI":
+			case "SUBI":
+			case "ADDI":
+			case "EORI":
+			case "CMPI":
+				size(name, s);
+				immediate(s);
+				sb.append(',');
+				ea(ea, s);
+				break;
+			case "ORI_CCR":
+			case "ANDI_CCR":
+			case "EORI_CCR":
+				sb.append(name, 0, name.length() - 4).append(" #");
+				hex(extension() & 0xFF, 2);
+				sb.append(",CCR");
+				break;
+			case "ORI_SR":
+			case "ANDI_SR":
+			case "EORI_SR":
+				sb.append(name, 0, name.length() - 3).append(" #");
+				hex(extension(), 4);
+				sb.append(",SR");
+				break;
+			case "BTST":
+			case "BCHG":
+			case "BCLR":
+			case "BSET":
+				size(name, mode == 0 ? 2 : 0);
+				if ((op & 0x100) != 0) {
+					sb.append('D').append(rx);
+				} else {
+					sb.append('#').append(extension() & 0xFF);
+				}
+				sb.append(',');
+				ea(ea, 0);
+				break;
+			case "MOVEP": {
+				int opmode = (op >> 6) & 7;
+				size("MOVEP", (opmode & 1) != 0 ? 2 : 1);
+				if (opmode >= 6) {
+					sb.append('D').append(rx).append(',');
+				}
+				signed((short) extension());
+				sb.append("(A").append(reg).append(')');
+				if (opmode < 6) {
+					sb.append(",D").append(rx);
+				}
+				break;
+			}
+			case "MOVE":
+			case "MOVEA": {
+				int size = (op >> 12) & 3;
+				int sz = size == 1 ? 0 : size == 3 ? 1 : 2;
+				size(name, sz);
+				ea(ea, sz);
+				sb.append(',');
+				ea(((op >> 3) & 0x38) | rx, sz);
+				break;
+			}
+			case "MOVE_FROM_SR":
+				sb.append("MOVE.W SR,");
+				ea(ea, 1);
+				break;
+			case "MOVE_TO_CCR":
+			case "MOVE_TO_SR":
+				sb.append("MOVE.W ");
+				ea(ea, 1);
+				sb.append(name.endsWith("CCR") ? ",CCR" : ",SR");
+				break;
+			case "MOVE_TO_FROM_USP":
+				if ((op & 8) != 0) {
+					sb.append("MOVE.L USP,A").append(reg);
+				} else {
+					sb.append("MOVE.L A").append(reg).append(",USP");
+				}
+				break;
+			case "CLR":
+			case "NEG":
+			case "NOT":
+			case "TST":
+				size(name, s);
+				ea(ea, s);
+				break;
+			case "NBCD":
+				size(name, 0);
+				ea(ea, 0);
+				break;
+			case "EXT":
+				size(name, (op & 0x40) != 0 ? 2 : 1);
+				sb.append('D').append(reg);
+				break;
+			case "SWAP":
+				sb.append("SWAP D").append(reg);
+				break;
+			case "PEA":
+			case "JSR":
+			case "JMP":
+				sb.append(name).append(' ');
+				ea(ea, 2);
+				break;
+			case "LEA":
+				sb.append("LEA ");
+				ea(ea, 2);
+				sb.append(",A").append(rx);
+				break;
+			case "MOVEM": {
+				int mask = extension();
+				int sz = (op & 0x40) != 0 ? 2 : 1;
+				size(name, sz);
+				if ((op & 0x400) != 0) {
+					ea(ea, sz);
+					sb.append(',');
+					registers(mask, false);
+				} else {
+					registers(mask, mode == 4);
+					sb.append(',');
+					ea(ea, sz);
+				}
+				break;
+			}
+			case "TRAP":
+				sb.append("TRAP #").append(op & 0xF);
+				break;
+			case "LINK":
+				sb.append("LINK A").append(reg).append(",#");
+				signed((short) extension());
+				break;
+			case "UNLK":
+				sb.append("UNLK A").append(reg);
+				break;
+			case "NOP":
+			case "RTE":
+			case "RTS":
+			case "RTR":
+				return name;
+			case "STOP":
+				sb.append("STOP #");
+				hex(extension(), 4);
+				break;
+			case "ADDQ":
+			case "SUBQ":
+				size(name, s);
+				sb.append('#').append(rx == 0 ? 8 : rx).append(',');
+				ea(ea, s);
+				break;
+			case "Scc":
+				sb.append('S').append(CONDITIONS[(op >> 8) & 0xF]).append(' ');
+				ea(ea, 0);
+				break;
+			case "DBcc": {
+				int base = next;
+				sb.append("DB").append(CONDITIONS[(op >> 8) & 0xF]).append(" D").append(reg).append(',');
+				hex((base + (short) extension()) & 0xFF_FFFF, 6);
+				break;
+			}
+			case "BCC": {
+				int condition = (op >> 8) & 0xF;
+				sb.append(condition == 0 ? "BRA" : condition == 1 ? "BSR" : "B" + CONDITIONS[condition]);
+				int displacement = (byte) op;
+				int base = next;
+				if (displacement == 0) {
+					displacement = (short) extension();
+					sb.append(".W ");
+				} else {
+					sb.append(".S ");
+				}
+				hex((base + displacement) & 0xFF_FFFF, 6);
+				break;
+			}
+			case "MOVEQ":
+				sb.append("MOVEQ #");
+				signed((byte) op);
+				sb.append(",D").append(rx);
+				break;
+			case "DIVU":
+			case "DIVS":
+			case "MULU":
+			case "MULS":
+				size(name, 1);
+				ea(ea, 1);
+				sb.append(",D").append(rx);
+				break;
+			case "ABCD":
+			case "SBCD":
+			case "ADDX":
+				size(name, name.equals("ADDX") ? s : 0);
+				if ((op & 8) != 0) {
+					sb.append("-(A").append(reg).append("),-(A").append(rx).append(')');
+				} else {
+					sb.append('D').append(reg).append(",D").append(rx);
+				}
+				break;
+			case "OR":
+			case "AND":
+			case "ADD":
+			case "SUB":
+			case "CMP":
+			case "EOR": {
+				int opmode = (op >> 6) & 7;
+				if (opmode < 3) {
+					size(name, opmode);
+					ea(ea, opmode);
+					sb.append(",D").append(rx);
+				} else {
+					size(name, opmode - 4);
+					sb.append('D').append(rx).append(',');
+					ea(ea, opmode - 4);
+				}
+				break;
+			}
+			case "ADDA":
+			case "SUBA":
+			case "CMPA": {
+				int sz = (op & 0x100) != 0 ? 2 : 1;
+				size(name, sz);
+				ea(ea, sz);
+				sb.append(",A").append(rx);
+				break;
+			}
+			case "CMPM":
+				size(name, s);
+				sb.append("(A").append(reg).append(")+,(A").append(rx).append(")+");
+				break;
+			case "EXG": {
+				int opmode = (op >> 3) & 0x1F;
+				sb.append("EXG ").append(opmode == 0x09 ? 'A' : 'D').append(rx).append(',');
+				sb.append(opmode == 0x08 ? 'D' : 'A').append(reg);
+				break;
+			}
+			case "ASL":
+			case "ASR":
+			case "LSL":
+			case "LSR":
+			case "ROXL":
+			case "ROXR":
+			case "ROR": {
+				char direction = (op & 0x100) != 0 ? 'L' : 'R';
+				if (s == 3) {
+					sb.append(SHIFTS[(op >> 9) & 3]).append(direction).append(".W ");
+					ea(ea, 1);
+				} else {
+					sb.append(SHIFTS[(op >> 3) & 3]).append(direction).append('.').append(SIZES[s]).append(' ');
+					if ((op & 0x20) != 0) {
+						sb.append('D').append(rx);
+					} else {
+						sb.append('#').append(rx == 0 ? 8 : rx);
+					}
+					sb.append(",D").append(reg);
+				}
+				break;
+			}
+			default:
+				sb.append(name).append(' ');
+				hex(op, 4);
+		}
+		return sb.toString();
+	}
+
+	private void size(String name, int size) {
+		sb.append(name).append('.').append(SIZES[size]).append(' ');
+	}
+
+	//	size 0 byte, 1 word, 2 long
+	private void ea(int ea, int size) {
+		int mode = ea >> 3;
+		int reg = ea & 7;
+		switch (mode) {
+			case 0:
+				sb.append('D').append(reg);
+				break;
+			case 1:
+				sb.append('A').append(reg);
+				break;
+			case 2:
+				sb.append("(A").append(reg).append(')');
+				break;
+			case 3:
+				sb.append("(A").append(reg).append(")+");
+				break;
+			case 4:
+				sb.append("-(A").append(reg).append(')');
+				break;
+			case 5:
+				signed((short) extension());
+				sb.append("(A").append(reg).append(')');
+				break;
+			case 6: {
+				int brief = extension();
+				signed((byte) brief);
+				sb.append("(A").append(reg);
+				indexRegister(brief);
+				break;
+			}
+			default:
+				switch (reg) {
+					case 0:
+						hex((short) extension() & 0xFF_FFFF, 4);
+						sb.append(".W");
+						break;
+					case 1: {
+						int hi = extension();
+						hex(((hi << 16) | extension()) & 0xFF_FFFF, 6);
+						sb.append(".L");
+						break;
+					}
+					case 2: {
+						int base = next;
+						hex((base + (short) extension()) & 0xFF_FFFF, 6);
+						sb.append("(PC)");
+						break;
+					}
+					case 3: {
+						int base = next;
+						int brief = extension();
+						hex((base + (byte) brief) & 0xFF_FFFF, 6);
+						sb.append("(PC");
+						indexRegister(brief);
+						break;
+					}
+					case 4:
+						immediate(size);
+						break;
+					default:
+						sb.append('?');
+				}
+		}
+	}
+
+	//	",Xn.s)" of the brief extension word
+	private void indexRegister(int brief) {
+		sb.append(',').append((brief & 0x8000) != 0 ? 'A' : 'D').append((brief >> 12) & 7);
+		sb.append((brief & 0x800) != 0 ? ".L)" : ".W)");
+	}
+
+	private void immediate(int size) {
+		sb.append('#');
+		if (size == 0) {
+			hex(extension() & 0xFF, 2);
+		} else if (size == 1) {
+			hex(extension(), 4);
+		} else {
+			int hi = extension();
+			hex(((long) hi << 16) | extension(), 8);
+		}
+	}
+
+	//	D0-D3/A0/A6, predecrement has the bits reversed
+	private void registers(int mask, boolean predecrement) {
+		if (predecrement) {
+			mask = Integer.reverse(mask) >>> 16;
+		}
+		boolean first = true;
+		for (int i = 0; i < 16; i++) {
+			if ((mask & (1 << i)) == 0) {
+				continue;
+			}
+			int end = i;
+			while (end < 15 && (end & 7) != 7 && (mask & (1 << (end + 1))) != 0) {
+				end++;
+			}
+			if (!first) {
+				sb.append('/');
+			}
+			first = false;
+			sb.append(i < 8 ? 'D' : 'A').append(i & 7);
+			if (end > i) {
+				sb.append('-').append(end < 8 ? 'D' : 'A').append(end & 7);
+			}
+			i = end;
+		}
+	}
+
+	private void signed(int value) {
+		if (value < 0) {
+			sb.append('-');
+			value = -value;
+		}
+		hex(value, 1);
+	}
+
+	static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+	private void hex(long value, int digits) {
+		sb.append('$');
+		hexDigits(sb, value, digits);
+	}
+
+	static void hexDigits(StringBuilder sb, long value, int digits) {
+		int length = Math.max(digits, (64 - Long.numberOfLeadingZeros(value) + 3) >> 2);
+		for (int i = (length - 1) * 4; i >= 0; i -= 4) {
+			sb.append(DIGITS[(int) (value >>> i) & 0xF]);
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("java gen.Disassembler rom.bin [-from address] [-count N]");
+			return;
+		}
+		int from = -1;
+		int count = Integer.MAX_VALUE;
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "-from":
+					from = Integer.parseInt(args[++i], 16);
+					break;
+				case "-count":
+					count = Integer.parseInt(args[++i]);
+					break;
+				default:
+					throw new RuntimeException("Unknown option " + args[i]);
+			}
+		}
+
+		Genefusto emu = new Genefusto(false, false);
+		emu.memory.rom = FileLoader.readFile(new File(args[0]));
+		emu.powerOn();
+		Disassembler disassembler = emu.disassembler;
+
+		long start = System.nanoTime();
+		int total = disassembler.disassembleAll();
+		long nanos = System.nanoTime() - start;
+		System.err.println(total + " instructions in " + (nanos / 1_000_000) + "ms");
+
+		PrintStream out = System.out;
+		int pc = from >= 0 ? from : 0x200;
+		for (int i = 0; i < count && pc < disassembler.cacheEnd; i++) {
+			int length = disassembler.length(pc);
+			StringBuilder sb = new StringBuilder();
+			hexDigits(sb, pc, 6);
+			sb.append("  ");
+			for (int b = 0; b < 10; b += 2) {
+				if (b < length) {
+					hexDigits(sb, disassembler.word(pc + b), 4);
+					sb.append(' ');
+				} else {
+					sb.append("     ");
+				}
+			}
+			out.println(sb.append(' ').append(disassembler.disassemble(pc)));
+			pc += length;
+		}
+	}
+
+}
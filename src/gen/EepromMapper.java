@@ -0,0 +1,182 @@
+package gen;
+
+import java.nio.ByteBuffer;
+
+//	Serial EEPROM, a Xicor X24C01 (128 bytes) on the I2C lines, as Sega wired it (Wonder Boy in
+//	Monster World, Megaman The Wily Wars): at the address of the header, writes drive SDA with bit 0
+//	and SCL with bit 1, reads give SDA back in bit 0. The bytes are in Memory.sram.
+//
+//	The X24C01 has no device address, after the start come 7 bits of word address and R/W:
+//		write	the bytes that follow go from the address up, wrapping in a page of 4
+//		read	the bytes come out from the address up while the 68000 acknowledges them
+//	Every byte is followed by the acknowledge bit, low from whoever received it.
+public class EepromMapper implements Mapper {
+
+	static final int SIZE = 128;
+	static final int PAGE = 4;
+
+	static final int STANDBY = 0;
+	static final int ADDRESS = 1;
+	static final int ADDRESS_ACK = 2;
+	static final int WRITE = 3;
+	static final int WRITE_ACK = 4;
+	static final int READ = 5;
+	static final int READ_ACK = 6;
+	static final int READ_ADDRESS_ACK = 7;
+
+	final Bus bus;
+	final Memory memory;
+	//	the byte with the lines
+	final long pins;
+
+	boolean scl;
+	boolean sda;
+	boolean out;
+	int state;
+	int bit;
+	int shift;
+	int address;
+
+	EepromMapper(Bus bus, long start) {
+		this.bus = bus;
+		this.memory = bus.memory;
+		this.pins = start | 1;
+	}
+
+	@Override
+	public void reset() {
+		scl = true;
+		sda = true;
+		out = true;
+		state = STANDBY;
+		bus.mapPages((int) pins >> Bus.CART_PAGE_SHIFT, (int) pins >> Bus.CART_PAGE_SHIFT, this);
+	}
+
+	@Override
+	public void writeRegister(long address, long data, OperationSize size) {
+	}
+
+	@Override
+	public long read(long address, OperationSize size) {
+		if ((address | 1) != pins) {
+			return bus.readRom(address, size);
+		}
+		long rom = bus.readRom(address, size);
+		int line = out ? 1 : 0;
+		return size == OperationSize.BYTE ? (rom & ~1) | line : (rom & ~0x0101) | (line << 8) | line;
+	}
+
+	@Override
+	public void write(long address, long data, OperationSize size) {
+		if ((address | 1) != pins) {
+			return;
+		}
+		if (size == OperationSize.LONG) {
+			data >>= 16;
+		}
+		lines((data & 2) != 0, (data & 1) != 0);
+	}
+
+	void lines(boolean scl, boolean sda) {
+		if (this.scl && scl && this.sda != sda) {
+			if (!sda) {	//	start
+				state = ADDRESS;
+				bit = 0;
+				shift = 0;
+			} else {	//	stop
+				state = STANDBY;
+			}
+			out = true;
+
+		} else if (!this.scl && scl) {
+			rising(sda);
+
+		} else if (this.scl && !scl) {
+			falling();
+		}
+		this.scl = scl;
+		this.sda = sda;
+	}
+
+	//	the receiver samples SDA
+	void rising(boolean sda) {
+		switch (state) {
+			case ADDRESS:
+			case WRITE:
+				shift = (shift << 1) | (sda ? 1 : 0);
+				if (++bit == 8) {
+					if (state == ADDRESS) {
+						address = (shift >> 1) & (SIZE - 1);
+						state = (shift & 1) != 0 ? READ_ADDRESS_ACK : ADDRESS_ACK;
+					} else {
+						memory.writeSRAM(address, shift & 0xFF, OperationSize.BYTE);
+						address = (address & ~(PAGE - 1)) | ((address + 1) & (PAGE - 1));
+						state = WRITE_ACK;
+					}
+				}
+				break;
+			case READ_ADDRESS_ACK:
+			case ADDRESS_ACK:
+			case WRITE_ACK:
+				bit = 0;
+				shift = 0;
+				state = state == READ_ADDRESS_ACK ? READ : WRITE;
+				break;
+			case READ:
+				if (++bit == 8) {
+					state = READ_ACK;
+				}
+				break;
+			case READ_ACK:
+				if (sda) {	//	not acknowledged, the 68000 wants no more
+					state = STANDBY;
+				} else {
+					address = (address + 1) & (SIZE - 1);
+					bit = 0;
+					state = READ;
+				}
+				break;
+		}
+	}
+
+	//	the transmitter puts the next bit on SDA
+	void falling() {
+		switch (state) {
+			case READ_ADDRESS_ACK:
+			case ADDRESS_ACK:
+			case WRITE_ACK:
+				out = false;
+				break;
+			case READ:
+				out = ((memory.sram[address] >> (7 - bit)) & 1) != 0;
+				break;
+			default:
+				out = true;
+				break;
+		}
+	}
+
+	@Override
+	public void saveState(ByteBuffer b) {
+		SaveState.putBoolean(b, scl);
+		SaveState.putBoolean(b, sda);
+		SaveState.putBoolean(b, out);
+		b.putInt(state);
+		b.putInt(bit);
+		b.putInt(shift);
+		b.putInt(address);
+	}
+
+	@Override
+	public void loadState(ByteBuffer b) {
+		scl = SaveState.getBoolean(b);
+		sda = SaveState.getBoolean(b);
+		out = SaveState.getBoolean(b);
+		state = b.getInt();
+		bit = b.getInt();
+		shift = b.getInt();
+		address = b.getInt();
+		bus.mapPages((int) pins >> Bus.CART_PAGE_SHIFT, (int) pins >> Bus.CART_PAGE_SHIFT, this);
+	}
+
+}
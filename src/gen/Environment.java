@@ -0,0 +1,204 @@
+package gen;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+//	Reset / step interface for agents (reinforcement learning, search, bots).
+//
+//	step(action, frameskip) presses the buttons of "action" (port 1 in the low byte, port 2 in the
+//	next one, Joypad bits), runs "frameskip" frames and returns the observation: the last frame,
+//	divided by "scale" and in gray if asked, one byte per channel, row by row.
+//	The RAM bytes to watch (score, lives, position...) are copied to ram(), one byte each. The
+//	reward and the end of the episode are up to the agent, from those bytes.
+//
+//	The observation and the RAM buffers are direct and allocated once, a step creates no objects.
+//	Only the last frame of a step is drawn.
+//	reset() goes back to the state of the first reset, which is exactly the machine after power on.
+//
+//	From another process: java gen.Environment rom.bin [-scale 2] [-gray] [-ram FF0000,FFFE10...]
+//	Binary, big endian. At start it writes width, height, channels and RAM count as ints, then for
+//	each command on stdin:
+//	- 'R'									reset
+//	- 'S', action (short), frameskip (byte)	step
+//	- 'Q'									quit
+//	R and S answer with the observation followed by the RAM bytes. Everything the emulator prints
+//	goes to stderr.
+public class Environment {
+
+	final Genefusto emu;
+	final SaveState start;
+	boolean started;
+
+	final int scale;
+	final boolean gray;
+	final int width;
+	final int height;
+	final int channels;
+	final ByteBuffer observation;
+
+	final int[] ramAddresses;
+	final ByteBuffer ram;
+
+	public Environment(int[] rom, int scale, boolean gray, int[] ramAddresses) {
+		emu = new Genefusto(false, false);
+		emu.memory.rom = rom;
+		start = new SaveState(emu);
+
+		this.scale = scale;
+		this.gray = gray;
+		width = 320 / scale;
+		height = 224 / scale;
+		channels = gray ? 1 : 3;
+		observation = ByteBuffer.allocateDirect(width * height * channels);
+
+		this.ramAddresses = ramAddresses;
+		ram = ByteBuffer.allocateDirect(ramAddresses.length);
+	}
+
+	public ByteBuffer reset() {
+		if (!started) {
+			emu.powerOn();
+			start.save();
+			started = true;
+		} else {
+			start.load();
+		}
+		emu.vdp.render = true;
+		emu.runFrame();
+		observe();
+		return observation;
+	}
+
+	public ByteBuffer step(int action, int frameskip) {
+		if (!started) {
+			throw new RuntimeException("reset() before the first step");
+		}
+		emu.joypad.setButtons(1, action & 0xFF);
+		emu.joypad.setButtons(2, (action >> 8) & 0xFF);
+
+		emu.vdp.render = false;
+		for (int i = 1; i < frameskip; i++) {
+			emu.runFrame();
+		}
+		emu.vdp.render = true;
+		emu.runFrame();
+		observe();
+		return observation;
+	}
+
+	public ByteBuffer ram() {
+		return ram;
+	}
+
+	//	H32 games are left aligned, the columns after 256 are black
+	void observe() {
+		int[][] screen = emu.vdp.screenData;
+		int screenWidth = emu.vdp.screenWidth();
+		ByteBuffer o = observation;
+		o.clear();
+		for (int y = 0; y < height; y++) {
+			int sy = y * scale;
+			for (int x = 0; x < width; x++) {
+				int sx = x * scale;
+				int color = sx < screenWidth ? screen[sx][sy] : 0;
+				int r = (color >> 16) & 0xFF;
+				int g = (color >> 8) & 0xFF;
+				int b = color & 0xFF;
+				if (gray) {
+					o.put((byte) ((r * 77 + g * 150 + b * 29) >> 8));
+				} else {
+					o.put((byte) r);
+					o.put((byte) g);
+					o.put((byte) b);
+				}
+			}
+		}
+		o.flip();
+
+		ByteBuffer m = ram;
+		m.clear();
+		for (int address : ramAddresses) {
+			m.put((byte) emu.memory.readRamByte(address & 0xFFFF));
+		}
+		m.flip();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("java gen.Environment rom.bin [-scale N] [-gray] [-ram FF0000,...]");
+			return;
+		}
+		int scale = 1;
+		boolean gray = false;
+		int[] addresses = new int[0];
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "-scale":
+					scale = Integer.parseInt(args[++i]);
+					break;
+				case "-gray":
+					gray = true;
+					break;
+				case "-ram":
+					String[] list = args[++i].split(",");
+					addresses = new int[list.length];
+					for (int a = 0; a < list.length; a++) {
+						addresses[a] = Integer.parseInt(list[a], 16);
+					}
+					break;
+				default:
+					throw new RuntimeException("Unknown option " + args[i]);
+			}
+		}
+
+		//	stdout is only for the protocol
+		FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel();
+		System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+
+		Environment env = new Environment(FileLoader.readFile(new File(args[0])), scale, gray, addresses);
+
+		ByteBuffer header = ByteBuffer.allocate(16);
+		header.putInt(env.width).putInt(env.height).putInt(env.channels).putInt(addresses.length);
+		header.flip();
+		write(out, header);
+
+		ByteBuffer[] reply = new ByteBuffer[] { env.observation, env.ram };
+		try {
+			for (;;) {
+				int command = in.readByte();
+				if (command == 'R') {
+					env.reset();
+				} else if (command == 'S') {
+					int action = in.readUnsignedShort();
+					int frameskip = in.readUnsignedByte();
+					env.step(action, Math.max(1, frameskip));
+				} else if (command == 'Q') {
+					break;
+				} else {
+					throw new RuntimeException("Unknown command " + command);
+				}
+				while (env.observation.hasRemaining() || env.ram.hasRemaining()) {
+					out.write(reply);
+				}
+			}
+		} catch (EOFException e) {
+			//	the agent closed the pipe
+		}
+	}
+
+	static void write(FileChannel channel, ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) {
+			channel.write(b);
+		}
+	}
+
+}
@@ -1,133 +1,168 @@
 package gen;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Enumeration;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
+//	Loads a ROM in any of the formats it comes in:
+//		.bin .md .gen	plain dump
+//		.smd			Super Magic Drive, 512 bytes of header and 16KB blocks interleaved (docs/smd_rom.txt)
+//		.zip			the first entry that looks like a ROM
+//		.gz				gzip of any of the above
+//	The format is decided by the content, not by the name: a lot of .md and .bin out there are SMD.
+//	The result is always the plain ROM, a byte per int like Memory.rom wants it.
 public class FileLoader {
 
-    public static int[] readFile(File file) {
-        FileInputStream fileStream = null;
-        byte[] arr = new byte[(int) file.length()];
-        try {
-            fileStream = new FileInputStream(file);
-
-            // Instantiate array
-    
-            /// read All bytes of File stream
-            fileStream.read(arr, 0, arr.length);
+    static final int SMD_HEADER = 512;
+    static final int SMD_BLOCK = 16 * 1024;
 
-            int i = 0;
-            int[] m_Rom = new int[arr.length];
-            for (byte b : arr) {
-                m_Rom[i] = b & 0xFF;
-                i++;
+    public static int[] readFile(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            byte[] magic = new byte[4];
+            channel.read(ByteBuffer.wrap(magic), 0);
+            if (!isZip(magic)) {
+                if (isGzip(magic)) {
+                    return loadFromStream(new GZIPInputStream(Channels.newInputStream(channel), 64 * 1024), -1);
+                }
+                return toRom(read(channel));
             }
-            
-            return m_Rom;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (fileStream != null) {
-                try {
-                    fileStream.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            throw new RuntimeException("Can't read the ROM " + file + ": " + e.getMessage(), e);
+        }
+        //	ZipFile opens it by name, once the channel is closed
+        return readZipFile(file);
+    }
+
+    //	read() of a channel can return less than asked, it loops until the whole file is in
+    static byte[] read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("too big, " + size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("ended at " + buffer.position() + " of " + size + " bytes");
             }
         }
-        
-        return null;
+        return buffer.array();
     }
-    
-    public static int[] readZip(String filename) {
-        try {
-            File f = new File(new FileLoader().getClass().getResource("roms\\" + filename).toURI());
-            
-            ZipFile zipFile = new ZipFile(f);
 
+    public static int[] readZipFile(File file) {
+        try (ZipFile zipFile = new ZipFile(file)) {
+            ZipEntry rom = null;
             Enumeration<? extends ZipEntry> entries = zipFile.entries();
-
             while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
-                int size = (int) entry.getSize();
-                InputStream stream = zipFile.getInputStream(entry);
-                
-                return loadFromStream(stream, size);
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (isRomName(entry.getName())) {
+                    rom = entry;
+                    break;
+                }
+                if (rom == null) {
+                    rom = entry;
+                }
+            }
+            if (rom == null) {
+                throw new RuntimeException("No ROM in " + file);
+            }
+            try (InputStream in = zipFile.getInputStream(rom)) {
+                return loadFromStream(in, (int) rom.getSize());
             }
         } catch (IOException e) {
-            e.printStackTrace();
-        } catch (URISyntaxException e) {
-            e.printStackTrace();
+            throw new RuntimeException("Can't read the ROM " + file + ": " + e.getMessage(), e);
         }
-        
-        return null;
     }
-    
-    public static int[] loadFromStream(InputStream is, int size) {
-        byte[] bytes = new byte[size];
-        BufferedInputStream bis;
 
-        bis = null;
-        int[] m_Rom = new int[size];
-        try {
-            bis = new BufferedInputStream(is);
-            int ret = bis.read(bytes);
-
-            int i = 0;
-            for (byte b : bytes) {
-                m_Rom[i] = b & 0xFF;
-                i++;
+    //	size -1 if not known
+    public static int[] loadFromStream(InputStream is, int size) throws IOException {
+        byte[] bytes;
+        if (size < 0) {
+            bytes = is.readAllBytes();
+        } else {
+            bytes = new byte[size];
+            int read = is.readNBytes(bytes, 0, size);
+            if (read < size) {
+                throw new IOException("ended at " + read + " of " + size + " bytes");
             }
-        } catch (Exception e) {
-            System.err.println("Can't open or read ROM");
-        } finally {
-            if (bis != null) {
-                try {
-                    bis.close();
-                }
-                catch (Exception ex) {
-                }
+        }
+        if (isGzip(bytes)) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                bytes = in.readAllBytes();
             }
         }
-        
-        return m_Rom;
+        return toRom(bytes);
     }
-    
-    public static int[] readZipFile(File file) {
-        try {
-            ZipFile zipFile = new ZipFile(file);
 
-            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+    static boolean isRomName(String name) {
+        name = name.toLowerCase();
+        return name.endsWith(".bin") || name.endsWith(".md") || name.endsWith(".gen") || name.endsWith(".smd");
+    }
 
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                if (entry.getName().toLowerCase().endsWith(".gb")) {
-                    int size = (int) entry.getSize();
-                    InputStream stream = zipFile.getInputStream(entry);
-                    
-                    return loadFromStream(stream, size);
-                }
-                if (entry.getName().toLowerCase().endsWith(".gbc")) {
-                    int size = (int) entry.getSize();
-                    InputStream stream = zipFile.getInputStream(entry);
-                    
-                    return loadFromStream(stream, size);
-                }
+    static boolean isZip(byte[] b) {
+        return b.length >= 4 && b[0] == 'P' && b[1] == 'K' && b[2] == 3 && b[3] == 4;
+    }
+
+    static boolean isGzip(byte[] b) {
+        return b.length >= 2 && (b[0] & 0xFF) == 0x1F && (b[1] & 0xFF) == 0x8B;
+    }
+
+    //	the header says AA BB at 8 and 9, and the rest is whole blocks. Some copiers leave the
+    //	marks at 0, then it's SMD if "SEGA" isn't where it should be in the plain ROM and it is
+    //	once deinterleaved
+    static boolean isSmd(byte[] b) {
+        if (b.length < SMD_HEADER + SMD_BLOCK || (b.length - SMD_HEADER) % SMD_BLOCK != 0) {
+            return false;
+        }
+        if ((b[8] & 0xFF) == 0xAA && (b[9] & 0xFF) == 0xBB) {
+            return true;
+        }
+        if (b[0x100] == 'S' && b[0x101] == 'E' && b[0x102] == 'G' && b[0x103] == 'A') {
+            return false;
+        }
+        //	0x100 and 0x102 are even, in the second half of the first block
+        int even = SMD_HEADER + SMD_BLOCK / 2 + 0x80;
+        int odd = SMD_HEADER + 0x80;
+        return b[even] == 'S' && b[odd] == 'E' && b[even + 1] == 'G' && b[odd + 1] == 'A';
+    }
+
+    static int[] toRom(byte[] bytes) {
+        if (isSmd(bytes)) {
+            return deinterleave(bytes);
+        }
+        int[] rom = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            rom[i] = bytes[i] & 0xFF;
+        }
+        return rom;
+    }
+
+    //	every block has the odd bytes in the first half and the even ones in the second half.
+    //	Genesis_ROM_Format.txt says it the other way around, smd_rom.txt is the one that's right
+    static int[] deinterleave(byte[] smd) {
+        int blocks = (smd.length - SMD_HEADER) / SMD_BLOCK;
+        int half = SMD_BLOCK / 2;
+        int[] rom = new int[blocks * SMD_BLOCK];
+        for (int block = 0; block < blocks; block++) {
+            int in = SMD_HEADER + block * SMD_BLOCK;
+            int out = block * SMD_BLOCK;
+            for (int i = 0; i < half; i++) {
+                rom[out + 2 * i] = smd[in + half + i] & 0xFF;
+                rom[out + 2 * i + 1] = smd[in + i] & 0xFF;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        return null;
+        return rom;
     }
-    
+
 }
@@ -0,0 +1,68 @@
+package gen;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//	Forks of a running machine, for search: every child starts exactly where the parent is and then
+//	runs on its own, with its own input, on any thread.
+//
+//	A fork is a CORE snapshot of the parent (registers, Z80 RAM, VDP state, ~10KB) loaded in the
+//	child, plus pointing the child to the RAM pages, SRAM and VRAM of the parent. The ROM is always
+//	shared. Whoever writes to a shared page first gets its own copy (Memory.ramOwned,
+//	VDP.vramShared), so a child only allocates what it changes.
+//
+//	Building a machine (the 68000 decode table) takes much longer than a fork, the children are
+//	built in advance and recycled with release().
+//
+//	fork() has to be called from the thread that runs the parent, or with the parent stopped.
+public class ForkPool {
+
+	final Genefusto parent;
+	final SaveState core;
+	final ConcurrentLinkedQueue<Genefusto> free = new ConcurrentLinkedQueue<>();
+
+	//	draw the frames of the children, off for search
+	boolean render;
+
+	public ForkPool(Genefusto parent, int size) {
+		this.parent = parent;
+		this.core = new SaveState(parent);
+		for (int i = 0; i < size; i++) {
+			free.add(build());
+		}
+	}
+
+	Genefusto build() {
+		Genefusto child = new Genefusto(false, false);
+		child.memory.rom = parent.memory.rom;
+		child.bus.z80Hle.enabled = parent.bus.z80Hle.enabled;
+		child.idleSkip = parent.idleSkip;
+		child.idle.enabled = parent.idle.enabled;
+		return child;
+	}
+
+	public Genefusto fork() {
+		Genefusto child = free.poll();
+		if (child == null) {
+			child = build();
+		}
+
+		ByteBuffer b = core.save(SaveState.CORE);
+
+		child.cartridge = parent.cartridge;
+		child.bus.install(parent.cartridge);
+		child.memory.share(parent.memory);
+		child.vdp.share(parent.vdp);
+		child.state.load(b);
+		child.vdp.restored();
+		child.vdp.render = render;
+
+		return child;
+	}
+
+	//	the child can't be used after this
+	public void release(Genefusto child) {
+		free.add(child);
+	}
+
+}
@@ -0,0 +1,126 @@
+package gen;
+
+import java.util.concurrent.locks.LockSupport;
+
+//	Frame timing of the window loop.
+//
+//	NORMAL		real speed, 59.92Hz NTSC / 49.70Hz PAL (master clock / (3420 * lines))
+//	FAST_FORWARD	"multiplier" times faster, draws one frame out of "multiplier", no audio
+//	TURBO		as fast as possible, draws at most at the real frame rate, no audio
+//
+//	Every frame has a deadline in nanoseconds, the next one is the previous + the period, so the
+//	error doesn't add up. The wait parks the thread until SPIN_NANOS before the deadline and
+//	spins the rest, the scheduler wakes up late by tens of microseconds on Linux and by more
+//	than a millisecond on Windows.
+//	After a stall (a dialog, the GC, a slow frame) the deadline is moved to now instead of
+//	running the lost frames in a burst.
+public class FramePacer {
+
+	static final double NTSC_FPS = 53693175.0 / (3420 * 262);
+	static final double PAL_FPS = 53203424.0 / (3420 * 313);
+
+	static final long SPIN_NANOS = 1_000_000;
+	static final int MAX_LATE_FRAMES = 4;
+
+	enum Mode {
+		NORMAL, FAST_FORWARD, TURBO
+	}
+
+	volatile Mode mode = Mode.NORMAL;
+	volatile int multiplier = 4;
+
+	double fps = NTSC_FPS;
+	long period = (long) (1_000_000_000L / NTSC_FPS);
+	long deadline;
+	long frames;
+	long lastDrawn;
+	//	frames that ended more than a period after their deadline
+	long late;
+
+	//	measured, frames per second of emulation over the last half second
+	volatile double measuredFps;
+	long windowStart;
+	int windowFrames;
+
+	public void setFrameRate(double fps) {
+		this.fps = fps;
+		period = (long) (1_000_000_000L / fps);
+		reset();
+	}
+
+	public void reset() {
+		long now = System.nanoTime();
+		deadline = now + period;
+		windowStart = now;
+		windowFrames = 0;
+		lastDrawn = now - period;
+	}
+
+	//	before the frame, if it has to be drawn
+	public boolean render() {
+		switch (mode) {
+			case FAST_FORWARD:
+				return frames % multiplier == 0;
+			case TURBO:
+				return System.nanoTime() - lastDrawn >= period;
+			default:
+				return true;
+		}
+	}
+
+	public boolean audio() {
+		return mode == Mode.NORMAL;
+	}
+
+	//	after the frame, waits for its deadline
+	public void endFrame(boolean drawn) {
+		frames++;
+		long now = System.nanoTime();
+		if (drawn) {
+			lastDrawn = now;
+		}
+
+		windowFrames++;
+		if (now - windowStart >= 500_000_000L) {
+			measuredFps = windowFrames * 1_000_000_000.0 / (now - windowStart);
+			windowStart = now;
+			windowFrames = 0;
+		}
+
+		Mode mode = this.mode;
+		if (mode == Mode.TURBO) {
+			deadline = now;
+			return;
+		}
+		long step = mode == Mode.FAST_FORWARD ? period / multiplier : period;
+		if (now - deadline > step) {
+			late++;
+		}
+		if (now - deadline > MAX_LATE_FRAMES * step) {
+			deadline = now;
+		}
+		waitUntil(deadline);
+		deadline += step;
+	}
+
+	static void waitUntil(long deadline) {
+		long remaining = deadline - System.nanoTime();
+		while (remaining > SPIN_NANOS) {
+			LockSupport.parkNanos(remaining - SPIN_NANOS);
+			remaining = deadline - System.nanoTime();
+		}
+		while (deadline - System.nanoTime() > 0) {
+			Thread.onSpinWait();
+		}
+	}
+
+	public double getFps() {
+		return measuredFps;
+	}
+
+	//	1.0 = real speed
+	public double getSpeed() {
+		return measuredFps / fps;
+	}
+
+}
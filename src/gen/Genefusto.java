@@ -10,7 +10,9 @@ import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.io.File;
+import java.io.IOException;
 
+import javax.swing.ButtonGroup;
 import javax.swing.ImageIcon;
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
@@ -37,6 +39,11 @@ import gen.addressing.DataRegisterDirect;
 import gen.addressing.ImmediateData;
 import gen.addressing.PCWithDisplacement;
 import gen.addressing.PCWithIndex;
+import gen.audio.AudioMixer;
+import gen.audio.AudioSink;
+import gen.audio.LineAudioSink;
+import gen.audio.NullAudioSink;
+import gen.audio.WavAudioSink;
 import gen.instruction.ABCD;
 import gen.instruction.ADD;
 import gen.instruction.ADDA;
@@ -122,8 +129,59 @@ public class Genefusto {
     Z80 z80;
     M68000 cpu;
     Joypad joypad;
+    IdleLoopDetector idle;
+    //	-Dgenefusto.noidleskip=true interprets every instruction of the wait loops. The detector
+    //	runs if this is on and the cartridge allows it, decided at every power on
+    boolean idleSkip = !Boolean.getBoolean("genefusto.noidleskip");
+    SaveState state;
     
-    private static int[] pixels;
+    //	set from the menu, done by the emulation thread between frames
+    volatile boolean markForSave;
+    volatile boolean markForLoad;
+    //	the window was closed, the emulation thread ends at the next frame
+    volatile boolean exiting;
+    File stateFile;
+    
+    Rewind rewind;
+    volatile boolean rewinding;
+    
+    //	buttons held on the keyboard, the joypad takes them at the start of a frame
+    volatile int keys;
+    
+    //	-Dgenefusto.record=file.gfm records the input from power on, -Dgenefusto.play=file.gfm plays it
+    Movie movie;
+    File movieFile;
+    
+    //	-Dgenefusto.runahead=N, frames emulated ahead of the one shown, 0 = off
+    int runAhead = Integer.getInteger("genefusto.runahead", 0);
+    SaveState ahead;
+    
+    //	-Dgenefusto.speed=turbo starts without frame limit, -Dgenefusto.ffspeed=N for fast forward
+    //	(space held), 4 by default
+    FramePacer pacer = new FramePacer();
+    FramePacer.Mode speed = "turbo".equals(System.getProperty("genefusto.speed"))
+    		? FramePacer.Mode.TURBO : FramePacer.Mode.NORMAL;
+    
+    final Trace trace = new Trace(this);
+    final Disassembler disassembler = new Disassembler(this);
+    
+    //	null unless -Dgenefusto.telemetry=true
+    Telemetry telemetry;
+    //	null unless -Dgenefusto.profile=dir
+    Profiler profiler;
+    //	null unless -Dgenefusto.debug=true
+    Debugger debugger;
+    
+    //	since power on, for Throughput
+    long cpuInstructions;
+    long z80Instructions;
+    
+    //	~93ms of stereo samples at 44100
+    AudioMixer audio = new AudioMixer(8192);
+    
+    //	only with window
+    BufferedImage img;
+    private int[] pixels;
 
     int debugMemoryChangedAddress;
     int debugMemoryChangedData;
@@ -132,18 +190,13 @@ public class Genefusto {
 
     int CLOCKSPEED = 4194304;
     
-    final JFrame jframe = new JFrame("GeNEFUSTO");
+    JFrame jframe;
     private Thread currentGameThread;
     private MyRunnable currentRunna;
     private boolean isRomOpened;
     
-    JCheckBoxMenuItem usaBios;
-    JCheckBoxMenuItem eurBios;
-    JCheckBoxMenuItem japBios;
-    
-    StringBuilder lineLog = new StringBuilder(300);
-    
-    static BufferedImage img = new BufferedImage(320, 256, BufferedImage.TYPE_INT_RGB);
+    //	resolved in powerOn when the ROM changes
+    Cartridge cartridge;
     
     public static void main(String[] args) throws Exception {
         // Create the frame on the event dispatching thread
@@ -159,14 +212,23 @@ public class Genefusto {
         this(false);
     }
     
-    final JLabel label = new JLabel(new ImageIcon(img));
+    JLabel label;
+    
+    //	region forced with the menu or -Dgenefusto.region, null the cartridge decides
+    Cartridge.Region region = Cartridge.region(System.getProperty("genefusto.region"));
 
     Genefusto(boolean debug) {
+    	this(debug, true);
+    }
+    
+    //	window = false for the machines that only run (forks), no Swing at all
+    Genefusto(boolean debug, boolean window) {
     	bus = new Bus(this, null, null, null, null, null);
         
     	memory = new Memory();
         vdp = new VDP(bus);
         z80 = new Z80(bus);
+        z80.toPrint = Boolean.getBoolean("genefusto.trace.z80");
         cpu = new M68000(bus);
         joypad = new Joypad();
         
@@ -175,6 +237,20 @@ public class Genefusto {
         bus.z80 = z80;
         bus.joypad = joypad;
         bus.cpu = cpu;
+        
+        //	-Dgenefusto.z80hle=true skips the Z80 interpretation, for runs that don't need audio
+        bus.z80Hle = new Z80Hle(z80);
+        bus.interrupts = new InterruptController(cpu, bus);
+        bus.z80Hle.enabled = Boolean.getBoolean("genefusto.z80hle");
+        
+        idle = new IdleLoopDetector(cpu, bus);
+        
+        state = new SaveState(this);
+        telemetry = Telemetry.create(this, window);
+        profiler = Profiler.create(this);
+        if (window) {
+        	debugger = Debugger.create(this);
+        }
 
         new ABCD(cpu).generate();
         new ADD(cpu).generate();
@@ -251,8 +327,6 @@ public class Genefusto {
         new TST(cpu).generate();
         new UNLK(cpu).generate();
         
-        System.out.println(cpu.totalInstructions);
-        
 		cpu.addressingModes = new AddressingMode[] {
 			new DataRegisterDirect(cpu),
 			new AddressRegisterDirect(cpu),
@@ -269,15 +343,33 @@ public class Genefusto {
 			new ImmediateData(cpu),	//	solo si es un source operand TODO, si es writting es StatusRegisterOperand
 		};
 		
+		if (window) {
+			System.out.println(cpu.totalInstructions);
+			
+	        //	-Dgenefusto.rewind=<MB> of history, 0 to turn it off
+	        int rewindSize = Integer.getInteger("genefusto.rewind", 32);
+	        if (rewindSize > 0) {
+	        	rewind = new Rewind(state, rewindSize << 20);
+	        }
+	        
+			createWindow();
+		}
+    }
+    
+    private void createWindow() {
     	try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception e) { }
         
+        img = new BufferedImage(320, 256, BufferedImage.TYPE_INT_RGB);
         pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
         
         Graphics g = img.getGraphics();
         g.drawImage(img, 0, 0, img.getWidth(), img.getHeight(), null);
         g.dispose();
+        
+        jframe = new JFrame("GeNEFUSTO");
+        label = new JLabel(new ImageIcon(img));
 
         JMenuBar bar = new JMenuBar();
     
@@ -287,15 +379,12 @@ public class Genefusto {
         JMenu menuBios = new JMenu("Region");
         bar.add(menuBios);
 
-        usaBios = new JCheckBoxMenuItem("USA", true);
-//    	usaBios.addActionListener(new ScreenListener(1));
-    	menuBios.add(usaBios);
-    	
-    	eurBios = new JCheckBoxMenuItem("Europe", false);
-    	menuBios.add(eurBios);
-    	
-    	japBios = new JCheckBoxMenuItem("Japan", false);
-    	menuBios.add(japBios);
+        //	takes effect when the ROM is loaded
+        ButtonGroup regions = new ButtonGroup();
+        regionItem(menuBios, regions, "Auto", null);
+        regionItem(menuBios, regions, "USA", Cartridge.Region.USA);
+        regionItem(menuBios, regions, "Europe", Cartridge.Region.EUROPE);
+        regionItem(menuBios, regions, "Japan", Cartridge.Region.JAPAN);
         
 //        JMenu viewMenu = new JMenu("View");
 //        bar.add(viewMenu);
@@ -320,14 +409,14 @@ public class Genefusto {
         loadItem.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-//                markForLoad = true;
+                markForLoad = true;
             }
         });
         JMenuItem saveItem = new JMenuItem("Quick save");
         saveItem.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-//                markForSave = true;
+                markForSave = true;
             }
         });
         
@@ -377,6 +466,35 @@ public class Genefusto {
             }
         });
         
+        //	so a wav being written gets its header patched when the window is closed. The audio and
+        //	the movie are closed by the emulation thread between frames (loop()), it's only done here
+        //	if the thread doesn't get there, stopped in the debugger for example
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+        	@Override
+        	public void run() {
+        		exiting = true;
+        		Thread game = currentGameThread;
+        		if (game != null) {
+        			try {
+        				game.join(1000);
+        			} catch (InterruptedException e) {
+        				Thread.currentThread().interrupt();
+        			}
+        		}
+        		if (game == null || game.isAlive()) {
+        			audio.stop();
+        			stopMovie();
+        		}
+        		String traceFile = System.getProperty("genefusto.trace");
+        		if (traceFile != null) {
+        			trace.dump(new File(traceFile));
+        		}
+        		if (profiler != null) {
+        			profiler.write(new File(System.getProperty("genefusto.profile")), 30);
+        		}
+        	}
+        });
+        
         jframe.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         jframe.setLocation(400, 400);
         jframe.setResizable(false);
@@ -386,29 +504,6 @@ public class Genefusto {
         jframe.setVisible(true);
     }
 
-    public void printLog(String fullOpcode) {
-//    	if (cpu.halted) {
-//    		System.out.println("HALTED");
-//    	} else {
-//	    	lineLog.setLength(0);
-//	        lineLog.append("af: ").append(cpu.pad(cpu.A)).append(cpu.pad(cpu.F)).append(" - bc: ").append(cpu.pad(cpu.B))
-//	            .append(cpu.pad(cpu.C)).append(" - de: ").append(cpu.pad(cpu.D)).append(cpu.pad(cpu.E)).append(" - hl: ")
-//	            .append(cpu.pad(cpu.H)).append(cpu.pad(cpu.L)).append("\npc: ").append(cpu.pad4(cpu.programCounter - 1))
-//	            .append(" - sp: ").append(cpu.pad4(cpu.stackPointer)).append(" - opcode: ").append(fullOpcode)
-//	            .append("\n").append("lcdc: ").append(cpu.pad(vdp.lcdControl)).append(" - stat: ")
-//	            .append(cpu.pad(vdp.ff41)).append(" - ly: ").append(cpu.pad(vdp.ff44)).append(" - IE: ")
-//	            .append(cpu.pad(cpu.ffff)).append(" - IF: ").append(cpu.pad(cpu.ff0f)).append("\n")
-//	            .append("04: ").append(cpu.pad(timer.ff04)).append(" - 05: ").append(cpu.pad(timer.ff05))
-//	            .append(" - 06: ").append(cpu.pad(timer.ff06)).append(" - 07: ").append(cpu.pad(timer.ff07))
-//	            .append("\n").append("scanline: ").append(vdp.scanlineCounter).append(" - RomBank: ").append(cpu.pad(memory.currentROMBank))
-//	            .append(" - Vram Bank: ").append(cpu.pad(vdp.currentVramBank))
-//	            .append(" - Wram Bank: ").append(cpu.pad(memory.currentWramBank)).append("\n");
-//	//        	.append("BGPal: ").append(pad(rom[0xFF68])).append(" - BGPal data: ").append(pad(rom[0xFF69]))
-//	//        	.append(" - OBJPal: ").append(pad(rom[0xFF6A])).append(" - OBJPal data: ").append(pad(rom[0xFF6B])).append("\n");
-//	        System.out.println(lineLog.toString());
-//    	}
-    }
-    
     class ScreenListener implements ActionListener {
         
     	int multiplier;
@@ -442,17 +537,29 @@ public class Genefusto {
 		}
     }
     
+    void regionItem(JMenu menu, ButtonGroup group, String name, final Cartridge.Region value) {
+    	JCheckBoxMenuItem item = new JCheckBoxMenuItem(name, region == value);
+    	item.addActionListener(new ActionListener() {
+    		@Override
+    		public void actionPerformed(ActionEvent e) {
+    			region = value;
+    		}
+    	});
+    	group.add(item);
+    	menu.add(item);
+    }
+    
     private void openRomDialog() {
         final JFileChooser fileChooser = new JFileChooser();
         fileChooser.setFileFilter(new FileFilter() {
             @Override
             public String getDescription() {
-                return "md and bin files";
+                return "ROMs (bin, md, gen, smd, zip, gz)";
             }
             @Override
             public boolean accept(File f) {
                 String name = f.getName().toLowerCase();
-                return f.isDirectory() || name.endsWith(".md") || name.endsWith(".bin");
+                return f.isDirectory() || FileLoader.isRomName(name) || name.endsWith(".zip") || name.endsWith(".gz");
             }
         });
         fileChooser.setCurrentDirectory(new File(basePath));
@@ -475,7 +582,9 @@ public class Genefusto {
     }
 
 //    String basePath = "C:\\Users\\Zotac\\workspace\\raul\\src\\gen\\roms\\";
-	String basePath = "c:\\Users\\Dmitry\\IdeaProjects\\ROMS\\Genesis\\";
+//	String basePath = "c:\\Users\\Dmitry\\IdeaProjects\\ROMS\\Genesis\\";
+	//	-Dgenefusto.roms=<dir> where the open dialog starts
+	String basePath = System.getProperty("genefusto.roms", System.getProperty("user.home"));
     
     class MyRunnable implements Runnable {
         File file;
@@ -486,82 +595,343 @@ public class Genefusto {
 
         @Override
         public void run() {
-            if (file.getName().toLowerCase().endsWith(".zip")) {
-//                memory.cartridgeMemory = GBFileLoader.readZipFile(file);
-            } else if (file.getName().toLowerCase().endsWith(".md")
-            		|| file.getName().toLowerCase().endsWith(".bin")) {
-                memory.rom = FileLoader.readFile(file);
-            }
+            memory.rom = FileLoader.readFile(file);
         
             String rom = file.getName();
+            stateFile = new File(file.getPath() + ".state");
             jframe.setTitle(jframe.getTitle() + " - " + rom);
             
-            cpu.reset();
-            cpu.initialize();
-            joypad.initialize();
-            vdp.init();
-            z80.initialize();
-            
-            int[] ssf2Title = new int[] {
-        		0x53, 0x55, 0x50, 0x45, 0x52, 0x20, 0x53, 0x54, 0x52, 0x45, 0x45, 0x54, 0x20, 0x46, 0x49, 0x47,
-            	0x48, 0x54, 0x45, 0x52, 0x32, 0x20, 0x54, 0x68, 0x65, 0x20, 0x4E, 0x65, 0x77, 0x20, 0x43, 0x68,
-            	0x61, 0x6C, 0x6C, 0x65, 0x6E, 0x67, 0x65, 0x72, 0x73, 0x20, 0x20, 0x20, 0x20, 0x20, 0x20, 0x20
-            };
-            
-            int[] titanOverdrive2Title = new int[] {
-                0x4F, 0x56, 0x45, 0x52, 0x44, 0x52, 0x49, 0x56, 0x45, 0x20, 0x32, 0x20, 0x20, 0x20, 0x20, 0x20,
-            };
-            
-            boolean isSsf2Mapper = true;
-            for (int i = 0; i < ssf2Title.length; i++) {
-            	if (memory.rom[0x150 + i] != ssf2Title[i]) {
-            		isSsf2Mapper = false;
-            	}
-			}
-            
-            if (!isSsf2Mapper) {
-            	isSsf2Mapper = true;
-            	for (int i = 0; i < titanOverdrive2Title.length; i++) {
-            		if (memory.rom[0x150 + i] != titanOverdrive2Title[i]) {
-            			isSsf2Mapper = false;
-            		}
-            	}
-            }
+            powerOn();
+            startMovie();
             
-            bus.ssf2Mapper = isSsf2Mapper;
-            if (isSsf2Mapper) {
-            	System.out.println("SSF2 Mapper!");
+            startAudio();
+            pacer.mode = speed;
+            pacer.multiplier = Math.max(1, Integer.getInteger("genefusto.ffspeed", 4));
+            pacer.setFrameRate(isPal() ? FramePacer.PAL_FPS : FramePacer.NTSC_FPS);
+            if (rewind != null) {
+            	rewind.clear();
+            	rewind.start();
             }
             
             loop();
         }
     }
     
+    //	memory.rom has to be loaded
+    void powerOn() {
+        if (cartridge == null || cartridge.rom != memory.rom || cartridge.forced != region) {
+        	cartridge = new Cartridge(memory.rom, region);
+        	System.out.println(cartridge);
+        }
+        bus.install(cartridge);
+        idle.enabled = idleSkip && cartridge.idleSkip;
+        
+        bus.interrupts.reset();
+        cpu.reset();
+        cpu.initialize();
+        joypad.initialize();
+        vdp.init();
+        vdp.pal = isPal() ? 1 : 0;
+        z80.initialize();
+        
+        disassembler.reset();
+    }
+    
     void loop() {
         try {
-            for(;;) {
-            	if (runZ80) {	//	TODO hacer que use la velocidad correcta y sea un thread distinto
-            		int opcode = z80.readMemory(z80.PC);
-    				z80.PC = (z80.PC + 1) & 0xFFFF;
-            		z80.executeInstruction(opcode);
+            while (!exiting) {
+            	if (rewinding && movie != null) {
+            		stopMovie();
             	}
-            	if (!cpu.stop) {
-            		cpu.runInstruction();
+            	if (rewinding && rewind != null && rewind.stepBack()) {
+            		vdp.render = true;
+            		frame();	//	to show it, the history is not touched
+            		pacer.endFrame(true);
+            		continue;
             	}
-            	bus.checkInterrupts();
-            	vdp.run(13);
-            	vdp.dmaFill();
-            	vdp.dmaFill();
+            	
+            	boolean draw = pacer.render();
+            	//	the debugger stops in the real frames only
+            	boolean ahead = runAhead > 0 && debugger == null;
+            	vdp.render = draw && !ahead;
+            	input();
+            	frame();
+            	endFrame();
+            	if (ahead && draw) {
+            		runAhead();
+            	}
+            	
+            	if (markForSave) {
+            		markForSave = false;
+            		quickSave();
+            	}
+            	if (markForLoad) {
+            		markForLoad = false;
+            		quickLoad();
+            	}
+            	
+            	pacer.endFrame(draw);
             }
         } catch (RuntimeException e) {
+        	trace.dump(System.out);
             throw e;
+        } finally {
+        	audio.stop();
+        	stopMovie();
+        	if (rewind != null) {
+        		rewind.stop();
+        	}
         }
     }
+    
+    //	the input only changes between frames, a movie gives the same frames every time
+    void input() {
+    	if (movie != null && movie.playing) {
+    		if (!movie.next(joypad)) {
+    			System.out.println("Movie finished, " + movie.frames + " frames");
+    			movie = null;
+    		}
+    		return;
+    	}
+    	joypad.setButtons(1, keys);
+    	if (movie != null) {
+    		movie.record(joypad);
+    	}
+    }
+    
+    void startMovie() {
+    	String play = System.getProperty("genefusto.play");
+    	String record = System.getProperty("genefusto.record");
+    	try {
+    		if (play != null) {
+    			movie = Movie.read(new File(play));
+    			movie.play(this);
+    			System.out.println("Playing " + play + ", " + movie.frames + " frames");
+    		} else if (record != null) {
+    			movie = Movie.record(this, false);
+    			movieFile = new File(record);
+    			System.out.println("Recording " + record);
+    		}
+    	} catch (IOException | RuntimeException e) {
+    		System.out.println("Can't play the movie: " + e.getMessage());
+    		movie = null;
+    	}
+    }
+    
+    //	a recording is saved, rewinding or loading a state ends it
+    synchronized void stopMovie() {
+    	Movie m = movie;
+    	movie = null;
+    	if (m == null || !m.recording) {
+    		return;
+    	}
+    	try {
+    		m.write(movieFile);
+    		System.out.println("Movie saved: " + movieFile + " (" + m.frames + " frames)");
+    	} catch (IOException e) {
+    		System.out.println("Can't save the movie: " + e.getMessage());
+    	}
+    }
+    
+    //	the frame of the loop, through the debugger if there is one
+    void frame() {
+    	if (debugger != null) {
+    		debugger.runFrame();
+    	} else {
+    		runFrame();
+    	}
+    }
+    
+    //	runs until the VDP reaches VINT
+    void runFrame() {
+    	if (telemetry != null) {
+    		telemetry.frameStart();
+    	}
+    	while (!vdp.frameDone) {
+    		step();
+    	}
+    	vdp.frameDone = false;
+    	trace.endFrame();
+    	if (telemetry != null) {
+    		telemetry.frameEnd();
+    	}
+    }
+    
+    void step() {
+    	runZ80();	//	TODO hacer que use la velocidad correcta y sea un thread distinto
+    	runCpu();
+    }
+    
+    //	the rest of the step, the debugger goes on from here after a breakpoint
+    void runCpu() {
+    	if (!cpu.stop) {
+    		long pc = cpu.PC;
+    		if (profiler != null) {
+    			profiler.cpu(pc);
+    		}
+    		cpu.runInstruction();
+    		cpuInstructions++;
+    		if (profiler != null) {
+    			profiler.cpuDone();
+    		}
+    		if (cpu.PC <= pc && idle.enabled) {
+    			idle.backwardBranch(pc);
+    		}
+    	}
+    	if (bus.interrupts.pending != 0) {
+    		bus.interrupts.service();
+    		idle.idle = false;
+    		if (profiler != null) {
+    			profiler.interrupt();
+    		}
+    	}
+    	runDevices();
+    	
+    	if (cpu.stop || idle.idle) {
+    		fastForward();
+    	}
+    }
+    
+    void runZ80() {
+    	if (runZ80 && !bus.z80Hle.active) {
+    		if (z80.irqLine) {
+    			z80.interrupt();
+    		}
+    		int opcode = z80.readMemory(z80.PC);
+			z80.PC = (z80.PC + 1) & 0xFFFF;
+			if (profiler != null) {
+				profiler.z80(z80.PC - 1, opcode);
+			}
+    		z80.executeInstruction(opcode);
+    		z80Instructions++;
+    	}
+    }
+    
+    void runDevices() {
+    	vdp.run(13);
+    	vdp.dmaFill();
+    	vdp.dmaFill();
+    }
+    
+    //	The 68000 is stopped or spinning in a loop that can't end by itself, the rest of the machine
+    //	runs without it until an interrupt, the end of the frame or the next VDP event. Each step is
+    //	the Z80 and the devices of step(), without the 68000 instruction.
+    //	A polling loop is skipped in whole iterations that end at or before the VDP event: its reads
+    //	all come before the devices of the last step, they would have seen what they saw before and
+    //	the 68000 is left at the loop head. A write of the Z80 to the 68000 side, or to Z80 RAM when
+    //	the loop reads there, ends the skip after that step or that iteration, see
+    //	IdleLoopDetector.skipped.
+    void fastForward() {
+    	int steps;
+    	if (cpu.stop) {
+    		steps = Integer.MAX_VALUE;
+    	} else if (idle.dbfRegister >= 0) {
+    		steps = idle.skipSteps;
+    	} else {
+    		steps = vdp.stepsToNextEvent() / idle.loopSteps * idle.loopSteps;
+    	}
+    	
+    	int sideEffects = bus.sideEffects;
+    	boolean pollsZ80 = idle.idle && idle.dbfRegister < 0 && idle.pollsZ80;
+    	int z80RamWrites = bus.z80RamWrites;
+    	int done = 0;
+    	while (done < steps && bus.interrupts.pending == 0 && !vdp.frameDone && bus.sideEffects == sideEffects
+    			&& (!pollsZ80 || bus.z80RamWrites == z80RamWrites)) {
+    		runZ80();
+    		runDevices();
+    		done++;
+    		if (pollsZ80 && bus.z80RamWrites != z80RamWrites && (done - 1) % idle.loopSteps > idle.z80ReadStep) {
+    			//	the reads of this iteration came before the write, the skip ends with the iteration
+    			steps = Math.min(steps, (done + idle.loopSteps - 1) / idle.loopSteps * idle.loopSteps);
+    			z80RamWrites = bus.z80RamWrites;
+    		}
+    	}
+    	if (idle.idle) {
+    		idle.skipped(done);
+    	}
+    }
+    
+    void endFrame() {
+    	if (pacer.audio()) {
+    		audio.endFrame();
+    	}
+    	if (rewind != null) {
+    		rewind.endFrame();
+    	}
+    }
+    
+    //	Run ahead: the real frame was emulated without drawing it, now the machine goes on
+    //	"runAhead" frames with the same input, the last one is the one shown. Then it goes back,
+    //	the game only sees the real frames but the screen shows the effect of the input already.
+    //	Only the last frame is drawn and none of them feeds the audio or the rewind history.
+    void runAhead() {
+    	if (ahead == null) {
+    		ahead = new SaveState(this);
+    	}
+    	ahead.save();
+    	
+    	for (int i = 1; i < runAhead; i++) {
+    		runFrame();
+    	}
+    	vdp.render = true;
+    	runFrame();
+    	
+    	ahead.load();
+    }
+    
+    void quickSave() {
+    	try {
+    		state.write(stateFile);
+    		System.out.println("State saved: " + stateFile + " (" + state.size() + " bytes)");
+    	} catch (IOException e) {
+    		System.out.println("Can't save the state: " + e.getMessage());
+    	}
+    }
+    
+    void quickLoad() {
+    	stopMovie();
+    	if (!stateFile.exists()) {
+    		System.out.println("No saved state: " + stateFile);
+    		return;
+    	}
+    	try {
+    		state.read(stateFile);
+    	} catch (IOException | RuntimeException e) {
+    		System.out.println("Can't load the state: " + e.getMessage());
+    	}
+    }
+    
+    //	-Dgenefusto.wav=file.wav dumps the audio instead of playing it
+    void startAudio() {
+    	audio.stop();
+    	audio.setFrameRate(isPal() ? FramePacer.PAL_FPS : FramePacer.NTSC_FPS);
+    	
+    	AudioSink sink;
+    	String wav = System.getProperty("genefusto.wav");
+    	if (wav != null) {
+    		sink = new WavAudioSink(new File(wav));
+    	} else {
+    		sink = new LineAudioSink(4096);
+    	}
+    	try {
+    		audio.start(sink);
+    	} catch (IOException e) {
+    		System.out.println("Audio not available, running without sound: " + e.getMessage());
+    		try {
+    			audio.start(new NullAudioSink());
+    		} catch (IOException e1) {
+    			e1.printStackTrace();
+    		}
+    	}
+    }
 
 	private int currentMultiplier = 1;
 	public boolean runZ80 = false;
 	
 	void renderScreen() {
+		if (jframe == null) {
+			return;
+		}
 	    int m = currentMultiplier;
 	    
 	    for (int i = 0; i < 256; i++) {
@@ -586,76 +956,83 @@ public class Genefusto {
     private void keyPressedHandler(KeyEvent e) {
         switch (e.getKeyCode()) {
             case KeyEvent.VK_W:
-            	cpu.bus.joypad.U = 0;
+            	keys |= Joypad.UP;
             	break;
             case KeyEvent.VK_A:
-            	cpu.bus.joypad.L = 0;
+            	keys |= Joypad.LEFT;
             	break;
             case KeyEvent.VK_D:
-            	cpu.bus.joypad.R = 0;
+            	keys |= Joypad.RIGHT;
                 break;
             case KeyEvent.VK_S:
-            	cpu.bus.joypad.D = 0;
+            	keys |= Joypad.DOWN;
                 break;
             case KeyEvent.VK_E:
-            	cpu.bus.joypad.S = 0;
+            	keys |= Joypad.START;
                 break;
             case KeyEvent.VK_T:
-            	cpu.bus.joypad.A = 0;
+            	keys |= Joypad.BUTTON_A;
                 break;
             case KeyEvent.VK_Y:
-            	cpu.bus.joypad.B = 0;
+            	keys |= Joypad.BUTTON_B;
                 break;
             case KeyEvent.VK_U:
-            	cpu.bus.joypad.C = 0;
+            	keys |= Joypad.BUTTON_C;
                 break;
             case KeyEvent.VK_ESCAPE:
             	openRomDialog();
             	break;
+            case KeyEvent.VK_BACK_SPACE:
+            	rewinding = true;
+            	break;
+            case KeyEvent.VK_SPACE:
+            	pacer.mode = FramePacer.Mode.FAST_FORWARD;
+            	break;
         }
     }
 
     private void keyReleasedHandler(KeyEvent e) {
         switch (e.getKeyCode()) {
 	        case KeyEvent.VK_W:
-	        	cpu.bus.joypad.U = 1;
+	        	keys &= ~Joypad.UP;
 	        	break;
 	        case KeyEvent.VK_A:
-	        	cpu.bus.joypad.L = 1;
+	        	keys &= ~Joypad.LEFT;
 	        	break;
 	        case KeyEvent.VK_D:
-	        	cpu.bus.joypad.R = 1;
+	        	keys &= ~Joypad.RIGHT;
 	            break;
 	        case KeyEvent.VK_S:
-	        	cpu.bus.joypad.D = 1;
+	        	keys &= ~Joypad.DOWN;
 	            break;
 	        case KeyEvent.VK_E:
-	        	cpu.bus.joypad.S = 1;
+	        	keys &= ~Joypad.START;
 	            break;
 	        case KeyEvent.VK_T:
-	        	cpu.bus.joypad.A = 1;
+	        	keys &= ~Joypad.BUTTON_A;
 	            break;
 	        case KeyEvent.VK_Y:
-	        	cpu.bus.joypad.B = 1;
+	        	keys &= ~Joypad.BUTTON_B;
 	            break;
 	        case KeyEvent.VK_U:
-	        	cpu.bus.joypad.C = 1;
+	        	keys &= ~Joypad.BUTTON_C;
 	            break;
+	        case KeyEvent.VK_BACK_SPACE:
+	        	rewinding = false;
+	        	break;
+	        case KeyEvent.VK_SPACE:
+	        	pacer.mode = speed;
+	        	break;
 	    }
     }
 
-	//	US:	A0A0 rev 0 o A1A1 rev 1
-    //	EU:	C1C1
-    //	JP: ????
-    //	US SEGA CD:	8181
+	boolean isPal() {
+		return cartridge.region.pal;
+	}
+	
+	//	version register, US SEGA CD:	8181
 	public long getRegion() {
-		if (japBios.isSelected()) {
-			return 0;
-		} else if (eurBios.isSelected()) {
-			return 0xC1;
-		} else {
-			return 0xA0;
-		}
+		return cartridge.version;
 	}
 
 }
@@ -0,0 +1,138 @@
+package gen;
+
+//	Finds the 68000 spinning on something that only an external event can change, so the emulator
+//	can skip the wasted instructions and run only the rest of the machine until the event.
+//
+//	Only short backward branches are looked at (the loop head is the branch target):
+//	- BTST/TST/CMP of RAM, VDP status or an I/O register followed by Bcc: two iterations in a row
+//	  with the same registers and SR, and no side effect on the bus (no writes, no VDP data port or
+//	  HV counter reads), will repeat until the next VDP event (HBlank, line end, interrupt).
+//	- DBF Dn,* delay loops: the remaining count is known, the iterations are skipped at once.
+//
+//	One 68000 instruction is one step in this emulator's timing model, so the skipped time is known
+//	exactly. A polling loop is skipped in whole iterations up to the next VDP event, HBlank, line
+//	end or the end of a DMA fill (see Genefusto.fastForward), the result is the same as
+//	interpreting it. The one exception is a write of the Z80 the loop can see (to the 68000 side, or
+//	to Z80 RAM before the last read of the loop there) in the middle of an iteration: the skip ends
+//	there and the rest of the iteration runs after it, not around it. With a single read of Z80 RAM
+//	in the loop that is still exact.
+//
+//	java gen.StateHash rom.bin movie.gfm -b noidleskip compares every frame with the skip off.
+public class IdleLoopDetector {
+
+	//	bytes between the branch and the loop head
+	static final int MAX_LOOP_SIZE = 32;
+
+	//	identical iterations before the loop is considered idle
+	static final int REPEATS = 2;
+
+	M68000 cpu;
+	Bus bus;
+
+	boolean enabled = true;
+
+	long head = -1;
+	long headCycle;
+	long[] registers = new long[17];
+	int sideEffects;
+	//	at the last branch, to see if the Z80 wrote its RAM during the iteration
+	int z80RamWrites;
+	//	the loop reads the Z80 space, a write of the Z80 to its RAM ends the skip
+	boolean pollsZ80;
+	//	instruction of the iteration with the last read there
+	int z80ReadStep;
+	int repeats;
+	//	instructions of one iteration
+	int loopSteps;
+
+	//	set when the last branch showed an idle loop
+	boolean idle;
+	//	iterations left of a DBF loop
+	int skipSteps;
+	//	-1 for a polling loop, the Dn of a DBF delay loop otherwise
+	int dbfRegister = -1;
+
+	//	stats
+	long loopsSkipped;
+	long stepsSkipped;
+
+	IdleLoopDetector(M68000 cpu, Bus bus) {
+		this.cpu = cpu;
+		this.bus = bus;
+	}
+
+	//	the instruction at pc branched back to cpu.PC
+	void backwardBranch(long pc) {
+		idle = false;
+
+		long target = cpu.PC;
+		if (pc - target > MAX_LOOP_SIZE) {
+			head = -1;
+			return;
+		}
+
+		if (target == pc) {
+			int opcode = (int) bus.read(pc, OperationSize.WORD);
+			if ((opcode & 0xFFF8) == 0x51C8) {	//	DBF Dn,*
+				int register = opcode & 0x7;
+				int count = (int) cpu.getDWord(register);
+				if (count > 0) {
+					idle = true;
+					skipSteps = count;
+					dbfRegister = register;
+				}
+				return;
+			}
+		}
+
+		long cycle = bus.vdp.cycleCounter;
+		int steps = (int) ((cycle - headCycle) / 13);
+
+		//	a loop that reads Z80 RAM sees what the Z80 writes there, that is a side effect for it.
+		//	Instruction i of the iteration runs at headCycle + (i + 1) * 13
+		boolean readsZ80 = bus.z80ReadCycle > headCycle;
+		boolean z80Wrote = bus.z80RamWrites != z80RamWrites;
+		z80ReadStep = (int) ((bus.z80ReadCycle - headCycle) / 13) - 1;
+		z80RamWrites = bus.z80RamWrites;
+		headCycle = cycle;
+
+		if (target != head || steps != loopSteps || bus.sideEffects != sideEffects || (readsZ80 && z80Wrote)
+				|| readsZ80 != pollsZ80 || !cpu.sameRegisters(registers)) {
+			head = target;
+			loopSteps = steps;
+			sideEffects = bus.sideEffects;
+			pollsZ80 = readsZ80;
+			cpu.saveRegisters(registers);
+			repeats = 0;
+			return;
+		}
+
+		repeats++;
+		if (repeats >= REPEATS) {
+			idle = true;
+			dbfRegister = -1;
+		}
+	}
+
+	//	the machine ran "steps" without the 68000, which is still at the loop head
+	//	A write of the Z80 to its RAM after the last read of the iteration ends the skip at the end
+	//	of that iteration, before it the skip ends there (Genefusto.fastForward).
+	void skipped(int steps) {
+		idle = false;
+		if (dbfRegister >= 0) {
+			cpu.setDWord(dbfRegister, (cpu.getDWord(dbfRegister) - steps) & 0xFFFF);
+		} else {
+			//	only a write of the Z80 ends it in the middle of an iteration, the instructions that
+			//	were left run now
+			int phase = steps % loopSteps;
+			for (int i = 0; i < phase; i++) {
+				cpu.runInstruction();
+			}
+			//	the next branch still sees a whole iteration
+			headCycle = bus.vdp.cycleCounter - ((phase + 1) * 13);
+		}
+		loopsSkipped++;
+		stepsSkipped += steps;
+	}
+
+}
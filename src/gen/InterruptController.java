@@ -0,0 +1,141 @@
+package gen;
+
+//	68000 interrupt lines and exception entry.
+//
+//	The levels asserted by the devices are kept in a mask, and "pending" holds the highest one the
+//	SR mask lets through (0 if none). It is only recomputed when a line changes or when SR is written,
+//	so the CPU loop just tests one int between instructions.
+//
+//	Genesis levels:	2 = external (TH pin of the I/O ports), 4 = HINT, 6 = VINT
+//	The VDP also asserts the Z80 INT pin at VBlank, that one goes to the Z80 directly.
+//
+//	https://www.gamefaqs.com/genesis/916377-genesis/faqs/9755
+//	http://darkdust.net/writings/megadrive/initializing
+public class InterruptController {
+
+	//	http://tict.ticalc.org/docs/68kguide.txt	Exception vectors
+	static final int ILLEGAL_INSTRUCTION_VECTOR = 0x10;
+	static final int LINE_A_VECTOR = 0x28;
+	static final int LINE_F_VECTOR = 0x2C;
+	static final int AUTOVECTOR_BASE = 0x60;	//	level n -> 0x60 + n * 4
+	static final int TRAP_VECTOR_BASE = 0x80;	//	TRAP #n -> 0x80 + n * 4
+
+	static final int EXTERNAL_LEVEL = 2;
+	static final int HINT_LEVEL = 4;
+	static final int VINT_LEVEL = 6;
+
+	M68000 cpu;
+	Bus bus;
+
+	//	bit n set = level n asserted
+	int levels;
+
+	//	highest asserted level above the SR mask, 0 if none. Level 7 is not maskable.
+	int pending;
+
+	InterruptController(M68000 cpu, Bus bus) {
+		this.cpu = cpu;
+		this.bus = bus;
+	}
+
+	//	power on, no line asserted
+	void reset() {
+		levels = 0;
+		pending = 0;
+	}
+
+	void set(int level, boolean asserted) {
+		if (asserted) {
+			levels |= (1 << level);
+		} else {
+			levels &= ~(1 << level);
+		}
+		update();
+	}
+
+	//	a line changed or SR was written
+	void update() {
+		int highest = 31 - Integer.numberOfLeadingZeros(levels);
+		if (highest > 0 && (highest > cpu.getInterruptMask() || highest == 7)) {
+			pending = highest;
+		} else {
+			pending = 0;
+		}
+	}
+
+	//	the external line, TH of a port with its interrupt enabled (VDP reg 0xB bit 3)
+	void setExternal(boolean asserted) {
+		set(EXTERNAL_LEVEL, asserted);
+	}
+
+	//	called between instructions when pending != 0
+	void service() {
+		int level = pending;
+
+		//	interrupt acknowledge, the VDP drops the line it was holding
+		if (level == VINT_LEVEL) {
+			bus.vdp.vip = 0;
+		} else if (level == HINT_LEVEL) {
+			bus.hintPending = false;
+		}
+		bus.vdp.updateInterruptLines();
+		if (level == EXTERNAL_LEVEL) {
+			set(EXTERNAL_LEVEL, false);
+		}
+
+		long pc = cpu.PC;
+		exception(AUTOVECTOR_BASE + (level * 4), pc);
+
+		cpu.SR = (cpu.SR & 0xF8FF) | (level << 8);
+		update();
+		
+		if (bus.emu.telemetry != null) {
+			bus.emu.telemetry.interrupt(level, pc, cpu.PC);
+		}
+	}
+
+	//	TRAP #n, returnPC is the address of the next instruction
+	public void trap(int number, long returnPC) {
+		exception(TRAP_VECTOR_BASE + (number * 4), returnPC);
+	}
+
+	//	the PC stacked is the one of the offending instruction
+	void illegalInstruction(int opcode, long pc) {
+		int vector;
+		if ((opcode & 0xF000) == 0xA000) {
+			vector = LINE_A_VECTOR;
+		} else if ((opcode & 0xF000) == 0xF000) {
+			vector = LINE_F_VECTOR;
+		} else {
+			vector = ILLEGAL_INSTRUCTION_VECTOR;
+		}
+		exception(vector, pc);
+	}
+
+	//	Group 1 and 2 exception stack frame: SR at SSP, PC at SSP + 2.
+	//	Enters supervisor mode, clears trace and jumps to the vector. PC is left at the handler,
+	//	callers running inside runInstruction() have to compensate the PC += 2 that follows.
+	void exception(int vector, long returnPC) {
+		int oldSR = cpu.SR;
+		long ssp = cpu.SSP;
+
+		ssp = (ssp - 4) & 0xFFFF_FFFFL;
+		bus.write(ssp, returnPC & 0xFFFF_FFFFL, OperationSize.LONG);
+		ssp = (ssp - 2) & 0xFFFF_FFFFL;
+		bus.write(ssp, oldSR, OperationSize.WORD);
+
+		cpu.SR = (oldSR | 0x2000) & 0x7FFF;	// force supervisor mode, no trace
+		cpu.setALong(7, ssp);
+
+		cpu.PC = bus.readInterruptVector(vector);
+		cpu.stop = false;
+
+		update();
+	}
+
+	//	Z80 INT pin, the VDP holds it during the first line of VBlank
+	void setZ80Irq(boolean asserted) {
+		bus.z80.irqLine = asserted;
+	}
+
+}
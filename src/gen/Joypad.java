@@ -1,5 +1,7 @@
 package gen;
 
+import java.nio.ByteBuffer;
+
 //	http://md.squee.co/315-5309
 //	http://md.squee.co/Howto:Read_Control_Pads
 public class Joypad {
@@ -8,6 +10,17 @@ public class Joypad {
 	long control2 = 0xFF;
 	long control3 = 0xFF;
 	
+	//	bits of setButtons / getButtons, 1 is pressed
+	static final int UP = 0x01;
+	static final int DOWN = 0x02;
+	static final int LEFT = 0x04;
+	static final int RIGHT = 0x08;
+	static final int BUTTON_A = 0x10;
+	static final int BUTTON_B = 0x20;
+	static final int BUTTON_C = 0x40;
+	static final int START = 0x80;
+	
+	//	0 is pressed
 	int D, U, L, R, A, B, C, S;
 	int D2, U2, L2, R2, A2, B2, C2, S2;
 	
@@ -75,6 +88,40 @@ public class Joypad {
 		}
 	}
 	
+	//	for input that doesn't come from the keyboard, port 1 or 2
+	void setButtons(int port, int pressed) {
+		int released = ~pressed;
+		if (port == 1) {
+			U = released & 1;
+			D = (released >> 1) & 1;
+			L = (released >> 2) & 1;
+			R = (released >> 3) & 1;
+			A = (released >> 4) & 1;
+			B = (released >> 5) & 1;
+			C = (released >> 6) & 1;
+			S = (released >> 7) & 1;
+		} else {
+			U2 = released & 1;
+			D2 = (released >> 1) & 1;
+			L2 = (released >> 2) & 1;
+			R2 = (released >> 3) & 1;
+			A2 = (released >> 4) & 1;
+			B2 = (released >> 5) & 1;
+			C2 = (released >> 6) & 1;
+			S2 = (released >> 7) & 1;
+		}
+	}
+	
+	int getButtons(int port) {
+		int released;
+		if (port == 1) {
+			released = U | (D << 1) | (L << 2) | (R << 3) | (A << 4) | (B << 5) | (C << 6) | (S << 7);
+		} else {
+			released = U2 | (D2 << 1) | (L2 << 2) | (R2 << 3) | (A2 << 4) | (B2 << 5) | (C2 << 6) | (S2 << 7);
+		}
+		return ~released & 0xFF;
+	}
+	
 	int readDataRegister3() {
 		return 0x3F;
 	}
@@ -106,4 +153,32 @@ public class Joypad {
 		return control3;
 	}
 	
+	void saveState(ByteBuffer b) {
+		b.putLong(control1);
+		b.putLong(control2);
+		b.putLong(control3);
+		
+		b.putInt(D); b.putInt(U); b.putInt(L); b.putInt(R);
+		b.putInt(A); b.putInt(B); b.putInt(C); b.putInt(S);
+		b.putInt(D2); b.putInt(U2); b.putInt(L2); b.putInt(R2);
+		b.putInt(A2); b.putInt(B2); b.putInt(C2); b.putInt(S2);
+		
+		SaveState.putBoolean(b, asserted1);
+		SaveState.putBoolean(b, asserted2);
+	}
+	
+	void loadState(ByteBuffer b) {
+		control1 = b.getLong();
+		control2 = b.getLong();
+		control3 = b.getLong();
+		
+		D = b.getInt(); U = b.getInt(); L = b.getInt(); R = b.getInt();
+		A = b.getInt(); B = b.getInt(); C = b.getInt(); S = b.getInt();
+		D2 = b.getInt(); U2 = b.getInt(); L2 = b.getInt(); R2 = b.getInt();
+		A2 = b.getInt(); B2 = b.getInt(); C2 = b.getInt(); S2 = b.getInt();
+		
+		asserted1 = SaveState.getBoolean(b);
+		asserted2 = SaveState.getBoolean(b);
+	}
+	
 }
@@ -0,0 +1,245 @@
+package gen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import gen.instruction.GenInstructionHandler;
+
+//	Two machines that start from the same state and run one step at a time (Z80 instruction, 68000
+//	instruction, interrupts, VDP), compared after every step: 68000 registers, SR, PC, stacks, the
+//	Z80 registers and the writes of the 68000 on the bus during the step.
+//
+//	The reference is the interpreter as it is. The candidate gets the opcodes of another
+//	implementation with M68000.replaceInstruction, from a GenInstructionHandler with a constructor
+//	(M68000). Anything that can be done to a Genefusto can be tried on the candidate the same way.
+//
+//	java gen.Lockstep rom.bin [-engine class] [-movie file.gfm] [-from frame] [-frames N]
+//	-from runs the reference alone up to that frame and then copies it to the candidate.
+//	At the first difference it prints both sides and the last instructions executed.
+public class Lockstep {
+
+	static final int HISTORY = 32;
+	static final int MAX_WRITES = 64;
+
+	final Genefusto reference;
+	final Genefusto candidate;
+
+	final long[] referenceRegisters = new long[20];
+	final long[] candidateRegisters = new long[20];
+	final int[] referenceZ80 = new int[22];
+	final int[] candidateZ80 = new int[22];
+
+	//	PC and opcode of the last steps of the reference
+	final long[] historyPC = new long[HISTORY];
+	final int[] historyOpcode = new int[HISTORY];
+	long steps;
+	int frame;
+
+	String difference;
+
+	public Lockstep(Genefusto reference, Genefusto candidate) {
+		this.reference = reference;
+		this.candidate = candidate;
+		reference.bus.writeLog = new long[MAX_WRITES];
+		candidate.bus.writeLog = new long[MAX_WRITES];
+	}
+
+	//	the candidate takes the state of the reference
+	public void sync() {
+		ByteBuffer b = reference.state.save();
+		candidate.state.load(b);
+		candidate.vdp.restored();
+	}
+
+	//	false at the first difference, in "difference"
+	public boolean runFrame() {
+		while (!reference.vdp.frameDone) {
+			if (!step()) {
+				return false;
+			}
+		}
+		if (!candidate.vdp.frameDone) {
+			difference = "The candidate didn't end the frame";
+			return false;
+		}
+		reference.vdp.frameDone = false;
+		candidate.vdp.frameDone = false;
+		frame++;
+		return true;
+	}
+
+	public boolean step() {
+		int slot = (int) (steps % HISTORY);
+		historyPC[slot] = reference.cpu.PC;
+		historyOpcode[slot] = (int) reference.bus.read(reference.cpu.PC, OperationSize.WORD);
+		steps++;
+
+		reference.bus.writeLogCount = 0;
+		candidate.bus.writeLogCount = 0;
+		reference.step();
+		candidate.step();
+
+		registers(reference.cpu, referenceRegisters);
+		registers(candidate.cpu, candidateRegisters);
+		for (int i = 0; i < referenceRegisters.length; i++) {
+			if (referenceRegisters[i] != candidateRegisters[i]) {
+				difference = "68000 " + REGISTERS[i] + ": " + Long.toHexString(referenceRegisters[i])
+						+ " " + Long.toHexString(candidateRegisters[i]);
+				return false;
+			}
+		}
+
+		z80Registers(reference.z80, referenceZ80);
+		z80Registers(candidate.z80, candidateZ80);
+		for (int i = 0; i < referenceZ80.length; i++) {
+			if (referenceZ80[i] != candidateZ80[i]) {
+				difference = "Z80 register " + i + ": " + Integer.toHexString(referenceZ80[i])
+						+ " " + Integer.toHexString(candidateZ80[i]);
+				return false;
+			}
+		}
+
+		Bus a = reference.bus;
+		Bus b = candidate.bus;
+		int writes = Math.max(a.writeLogCount, b.writeLogCount);
+		for (int i = 0; i < writes; i++) {
+			long wa = i < a.writeLogCount ? a.writeLog[i] : -1;
+			long wb = i < b.writeLogCount ? b.writeLog[i] : -1;
+			if (wa != wb) {
+				difference = "Write " + i + ": " + write(wa) + " " + write(wb);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static final String[] REGISTERS = {
+			"D0", "D1", "D2", "D3", "D4", "D5", "D6", "D7",
+			"A0", "A1", "A2", "A3", "A4", "A5", "A6", "A7",
+			"SR", "PC", "SSP", "USP" };
+
+	static void registers(M68000 cpu, long[] registers) {
+		cpu.saveRegisters(registers);
+		registers[17] = cpu.PC;
+		registers[18] = cpu.SSP;
+		registers[19] = cpu.USP;
+	}
+
+	static void z80Registers(Z80 z80, int[] r) {
+		r[0] = z80.A; r[1] = z80.B; r[2] = z80.C; r[3] = z80.D;
+		r[4] = z80.E; r[5] = z80.F; r[6] = z80.H; r[7] = z80.L;
+		r[8] = z80.A2; r[9] = z80.B2; r[10] = z80.C2; r[11] = z80.D2;
+		r[12] = z80.E2; r[13] = z80.F2; r[14] = z80.H2; r[15] = z80.L2;
+		r[16] = z80.IX; r[17] = z80.IY; r[18] = z80.I; r[19] = z80.R;
+		r[20] = z80.PC; r[21] = z80.SP;
+	}
+
+	static String write(long w) {
+		if (w == -1) {
+			return "none";
+		}
+		OperationSize size = OperationSize.values()[(int) (w >>> 56)];
+		return size + " " + Long.toHexString((w >>> 32) & 0xFF_FFFF) + "=" + Long.toHexString(w & 0xFFFF_FFFFL);
+	}
+
+	void report() {
+		System.out.println("Difference at frame " + frame + ", step " + steps + ": " + difference);
+		System.out.println("Last instructions (reference):");
+		long first = Math.max(0, steps - HISTORY);
+		for (long s = first; s < steps; s++) {
+			int slot = (int) (s % HISTORY);
+			//	the text is of the memory as it is now, the opcode the one that ran
+			System.out.println("  " + Long.toHexString(historyPC[slot]) + "\t" + String.format("%04x", historyOpcode[slot])
+					+ "\t" + reference.disassembler.disassemble(historyPC[slot]));
+		}
+		for (int i = 0; i < REGISTERS.length; i++) {
+			System.out.println("  " + REGISTERS[i] + "\t" + Long.toHexString(referenceRegisters[i])
+					+ "\t" + Long.toHexString(candidateRegisters[i]));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println("java gen.Lockstep rom.bin [-engine class] [-movie file.gfm] [-from frame] [-frames N]");
+			return;
+		}
+		int[] rom = FileLoader.readFile(new File(args[0]));
+		String engine = null;
+		File movieFile = null;
+		int from = 0;
+		int frames = 600;
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "-engine":
+					engine = args[++i];
+					break;
+				case "-movie":
+					movieFile = new File(args[++i]);
+					break;
+				case "-from":
+					from = Integer.parseInt(args[++i]);
+					break;
+				case "-frames":
+					frames = Integer.parseInt(args[++i]);
+					break;
+				default:
+					throw new RuntimeException("Unknown option " + args[i]);
+			}
+		}
+
+		Genefusto reference = new Genefusto(false, false);
+		Genefusto candidate = new Genefusto(false, false);
+		reference.memory.rom = rom;
+		candidate.memory.rom = rom;
+		reference.vdp.render = false;
+		candidate.vdp.render = false;
+		reference.powerOn();
+		candidate.powerOn();
+		if (engine != null) {
+			install(engine, candidate.cpu);
+		}
+
+		Movie movie = movieFile != null ? movie(movieFile, reference) : null;
+		for (int i = 0; i < from; i++) {
+			if (movie != null) {
+				movie.next(reference.joypad);
+			}
+			reference.runFrame();
+		}
+
+		Lockstep lockstep = new Lockstep(reference, candidate);
+		lockstep.sync();
+		lockstep.frame = from;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < frames; i++) {
+			if (movie != null) {
+				if (!movie.next(reference.joypad)) {
+					break;
+				}
+				candidate.joypad.setButtons(1, reference.joypad.getButtons(1));
+				candidate.joypad.setButtons(2, reference.joypad.getButtons(2));
+			}
+			if (!lockstep.runFrame()) {
+				lockstep.report();
+				System.exit(1);
+			}
+		}
+		long ms = (System.nanoTime() - start) / 1_000_000;
+		System.out.println((lockstep.frame - from) + " frames, " + lockstep.steps + " steps in " + ms + "ms, no differences");
+	}
+
+	static Movie movie(File file, Genefusto emu) throws IOException {
+		Movie movie = Movie.read(file);
+		movie.play(emu);
+		return movie;
+	}
+
+	static void install(String engine, M68000 cpu) throws Exception {
+		Class<?> type = Class.forName(engine);
+		GenInstructionHandler handler = (GenInstructionHandler) type.getConstructor(M68000.class).newInstance(cpu);
+		handler.generate();
+	}
+
+}
@@ -1,5 +1,7 @@
 package gen;
 
+import java.nio.ByteBuffer;
+
 import gen.addressing.AddressingMode;
 import gen.instruction.Operation;
 
@@ -81,7 +83,9 @@ public class M68000 {
 
 		Instruction instruction = instructions[(int)opcode];
 		if (instruction == null) {
-			System.out.println("Unknown OpCode! PC: " + Integer.toHexString((int) PC) + " - OpCode: " + Integer.toHexString((int)opcode));
+			bus.emu.trace.record(Trace.UNKNOWN_OPCODE, Trace.M68000, PC, (int) opcode, PC, 0);
+			bus.interrupts.illegalInstruction((int) opcode, PC);
+			PC -= 2;
 		} else {
 			instruction.run((int) opcode);
 		}
@@ -540,6 +544,28 @@ public class M68000 {
     int getInterruptMask() {
     	return (SR >> 8) & 0x7;
     }
+    
+    //	for the writes that can change the interrupt mask
+    public void setSR(int value) {
+    	SR = value;
+    	bus.interrupts.update();
+    }
+    
+    //	D0-D7, A0-A7, SR
+    void saveRegisters(long[] registers) {
+    	System.arraycopy(D, 0, registers, 0, 8);
+    	System.arraycopy(A, 0, registers, 8, 8);
+    	registers[16] = SR;
+    }
+    
+    boolean sameRegisters(long[] registers) {
+    	for (int i = 0; i < 8; i++) {
+    		if (D[i] != registers[i] || A[i] != registers[i + 8]) {
+    			return false;
+    		}
+    	}
+    	return SR == registers[16];
+    }
 
     int totalInstructions = 0;
     
@@ -551,6 +577,11 @@ public class M68000 {
 		totalInstructions++;
 		instructions[opcode] = ins;
 	}
+	
+	//	for another implementation of an opcode, checked against this one with Lockstep
+	public void replaceInstruction(int opcode, Instruction ins) {
+		instructions[opcode] = ins;
+	}
 
 //	Condition code 'cc' specifies one of the following:
 //0000 F  False            Z = 1      1000 VC oVerflow Clear   V = 0
@@ -655,4 +686,28 @@ public class M68000 {
 		return taken;
 	}
 	
+    void saveState(ByteBuffer b) {
+    	for (int i = 0; i < 8; i++) {
+    		b.putLong(D[i]);
+    		b.putLong(A[i]);
+    	}
+    	b.putLong(PC);
+    	b.putLong(SSP);
+    	b.putLong(USP);
+    	b.putInt(SR);
+    	SaveState.putBoolean(b, stop);
+    }
+    
+    void loadState(ByteBuffer b) {
+    	for (int i = 0; i < 8; i++) {
+    		D[i] = b.getLong();
+    		A[i] = b.getLong();
+    	}
+    	PC = b.getLong();
+    	SSP = b.getLong();
+    	USP = b.getLong();
+    	SR = b.getInt();
+    	stop = SaveState.getBoolean(b);
+    }
+    
 }
@@ -0,0 +1,30 @@
+package gen;
+
+import java.nio.ByteBuffer;
+
+//	Whatever a cartridge has besides ROM: bank registers, save memory.
+//
+//	Bus sees 000000-3FFFFF as 64 pages of 64KB. A page nobody took is ROM, from Bus.romBase of the
+//	page; a page a mapper took goes to its read() and write(). Mappers change the table only when
+//	their registers change (Bus.mapPages, Bus.romBase), so a plain ROM costs the same as before and
+//	a bank switch is a table update, nothing is decided per access.
+public interface Mapper {
+
+	//	at power on, registers to their initial value and pages installed
+	void reset();
+
+	//	A13000-A130FF, the /TIME registers. Every mapper sees every write
+	void writeRegister(long address, long data, OperationSize size);
+
+	//	only for the pages this mapper took
+	long read(long address, OperationSize size);
+
+	void write(long address, long data, OperationSize size);
+
+	//	the pages are installed again after loading, without Bus.bankSwitched: the game didn't switch
+	//	anything, and rewind and run-ahead load a state every frame
+	void saveState(ByteBuffer b);
+
+	void loadState(ByteBuffer b);
+
+}
@@ -1,10 +1,32 @@
 package gen;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 public class Memory {
 
 	int[] rom;
-	int[] ram = new int[0x10000];
+	
+	//	RAM in 1KB pages, a forked machine shares the pages with its parent until one of them writes
+	//	to it. Not owned = shared, copied on the first write.
+	static final int PAGE_SHIFT = 10;
+	static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	static final int PAGE_MASK = PAGE_SIZE - 1;
+	static final int RAM_SIZE = 0x10000;
+	static final int RAM_PAGES = RAM_SIZE >> PAGE_SHIFT;
+	
+	int[][] ramPages = new int[RAM_PAGES][PAGE_SIZE];
+	boolean[] ramOwned = new boolean[RAM_PAGES];
+	//	written since StateHash last looked at them
+	boolean[] ramDirty = new boolean[RAM_PAGES];
+	
+    //	the save memory of the cartridge, SRAM or EEPROM, see SramMapper and EepromMapper
     int[] sram = new int[0x10000];
+    boolean sramShared;
+    
+    Memory() {
+    	Arrays.fill(ramOwned, true);
+    }
 
 	int readROM(int address, OperationSize opsize) {
 		int data = 0;
@@ -39,22 +61,22 @@ public class Memory {
 
         switch (opsize) {
             case BYTE:
-                if(address < ram.length) {
-                    data = ram[address];
+                if(address < RAM_SIZE) {
+                    data = readRamByte(address);
                 }
                 break;
             case WORD:
-                if(address+1 < ram.length) {
-                    data  = ram[address] << 8;
-                    data |= ram[address + 1];
+                if(address+1 < RAM_SIZE) {
+                    data  = readRamByte(address) << 8;
+                    data |= readRamByte(address + 1);
                 }
                 break;
             case LONG:
-                if(address+3 < ram.length) {
-                    data = ram[address] << 24;
-                    data |= ram[address + 1] << 16;
-                    data |= ram[address + 2] << 8;
-                    data |= ram[address + 3];
+                if(address+3 < RAM_SIZE) {
+                    data = readRamByte(address) << 24;
+                    data |= readRamByte(address + 1) << 16;
+                    data |= readRamByte(address + 2) << 8;
+                    data |= readRamByte(address + 3);
                 }
                 break;
         }
@@ -63,35 +85,11 @@ public class Memory {
     }
 
 
-    int readSRAM(int address, OperationSize opsize) {
-        int data = 0;
-
-        switch (opsize) {
-            case BYTE:
-                if(address < sram.length) {
-                    data = sram[address];
-                }
-                break;
-            case WORD:
-                if(address+1 < sram.length) {
-                    data  = sram[address] << 8;
-                    data |= sram[address + 1];
-                }
-                break;
-            case LONG:
-                if(address+3 < sram.length) {
-                    data = sram[address] << 24;
-                    data |= sram[address + 1] << 16;
-                    data |= sram[address + 2] << 8;
-                    data |= sram[address + 3];
-                }
-                break;
-        }
-
-        return data;
-    }
-
     public void writeSRAM(int address, int data, OperationSize opsize) {
+    	if (sramShared) {
+    		sram = sram.clone();
+    		sramShared = false;
+    	}
 
         switch (opsize) {
             case BYTE:
@@ -116,47 +114,72 @@ public class Memory {
         }
     }
 
-	int readCartridgeByte(int address) {
-		int data = 0;
-//		if (address <= 0x3FFFFF) {
-//			while (address >= rom.length) {	//	wrapping ? TODO confirmar
-//				address -= rom.length;
-//			}
-//			data = rom[address];
-//		}
-
-		if(address < rom.length)
-			data = rom[address];
-
-		return data;
-	}
-	
-	long readCartridgeWord(long address) {
-		long data = 0;
-//		if (address <= 0x3FFFFF) {
-			if (address >= rom.length) {	//	wrapping ? TODO confirmar
-				address -= rom.length;
-			}
-			data  = rom[(int) address] << 8;
-			data |= rom[(int) address + 1];
-//		}
-		return data;
-	}
-	
 	long readRam(long address) {
 		long data = 0;
 		if (address >= 0xFF0000) {
-			data = ram[(int) (address - 0xFF0000)];
+			data = readRamByte((int) (address - 0xFF0000));
 		}
 		return data;
 	}
 	
+	int readRamByte(int address) {
+		return ramPages[address >> PAGE_SHIFT][address & PAGE_MASK];
+	}
+	
 	void writeRam(long address, long data) {
 		if (address <= 0xFFFF) {
-			ram[(int) address] = (int) data;
+			int page = (int) address >> PAGE_SHIFT;
+			if (!ramOwned[page]) {
+				ownPage(page);
+			}
+			ramPages[page][(int) address & PAGE_MASK] = (int) data;
+			ramDirty[page] = true;
 		} else {
 			throw new RuntimeException("READ NOT MAPPED: " + Integer.toHexString((int) address));
 		}
 	}
 	
+	private void ownPage(int page) {
+		ramPages[page] = ramPages[page].clone();
+		ramOwned[page] = true;
+	}
+	
+	//	this machine starts with the RAM and SRAM of the parent, both copy on write. The SRAM is
+	//	copied whole on its first write, games write it when saving and not every frame.
+	void share(Memory parent) {
+		rom = parent.rom;
+		for (int i = 0; i < RAM_PAGES; i++) {
+			ramPages[i] = parent.ramPages[i];
+			ramOwned[i] = false;
+			parent.ramOwned[i] = false;
+		}
+		Arrays.fill(ramDirty, true);
+		sram = parent.sram;
+		sramShared = true;
+		parent.sramShared = true;
+	}
+	
+	void saveState(ByteBuffer b) {
+		for (int i = 0; i < RAM_PAGES; i++) {
+			SaveState.putBytes(b, ramPages[i]);
+		}
+		SaveState.putBytes(b, sram);
+	}
+	
+	void loadState(ByteBuffer b) {
+		for (int i = 0; i < RAM_PAGES; i++) {
+			if (!ramOwned[i]) {
+				ramPages[i] = new int[PAGE_SIZE];
+				ramOwned[i] = true;
+			}
+			SaveState.getBytes(b, ramPages[i]);
+		}
+		Arrays.fill(ramDirty, true);
+		if (sramShared) {
+			sram = new int[sram.length];
+			sramShared = false;
+		}
+		SaveState.getBytes(b, sram);
+	}
+	
 }
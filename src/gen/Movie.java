@@ -0,0 +1,220 @@
+package gen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+//	Input movie: the buttons of both pads for every frame, from power on or from a save state.
+//	The machine only takes input between frames (Genefusto.input), and nothing in the emulation
+//	depends on time or chance, so playing it again gives exactly the same frames.
+//
+//	File, big endian:
+//	"GFMV", version, CRC32 of the ROM, start (0 power on, 1 state), size and CRC32 of the state,
+//	the state, number of frames, then runs of (frames as varint, port 1, port 2).
+//
+//	java gen.Movie rom.bin movie.gfm [-norender] plays it without window as fast as possible and
+//	prints the speed and the CRC32 of the final state, the same movie is the same workload on
+//	every build.
+public class Movie {
+
+	static final int MAGIC = 0x47464D56;	//	"GFMV"
+	static final int VERSION = 1;
+
+	static final int POWER_ON = 0;
+	static final int STATE = 1;
+
+	int romCrc;
+	int start;
+	byte[] state = new byte[0];
+
+	//	port 1, port 2 for each frame
+	byte[] input = new byte[2 * 60 * 60];
+	int frames;
+
+	int position;
+	boolean recording;
+	boolean playing;
+
+	//	fromState = false has to be called right after power on
+	static Movie record(Genefusto emu, boolean fromState) {
+		Movie movie = new Movie();
+		movie.romCrc = crc(emu.memory.rom);
+		if (fromState) {
+			ByteBuffer b = emu.state.save();
+			movie.start = STATE;
+			movie.state = new byte[b.remaining()];
+			b.get(movie.state);
+		}
+		movie.recording = true;
+		return movie;
+	}
+
+	//	also right after power on, for STATE the state is loaded
+	void play(Genefusto emu) {
+		if (romCrc != crc(emu.memory.rom)) {
+			throw new RuntimeException("Movie of a different ROM");
+		}
+		if (start == STATE) {
+			ByteBuffer b = emu.state.buffer;
+			b.clear();
+			b.put(state);
+			b.flip();
+			emu.state.load(b);
+		}
+		position = 0;
+		recording = false;
+		playing = true;
+	}
+
+	synchronized void record(Joypad joypad) {
+		if (frames * 2 == input.length) {
+			input = Arrays.copyOf(input, input.length * 2);
+		}
+		input[frames * 2] = (byte) joypad.getButtons(1);
+		input[frames * 2 + 1] = (byte) joypad.getButtons(2);
+		frames++;
+	}
+
+	//	false at the end of the movie
+	boolean next(Joypad joypad) {
+		if (position >= frames) {
+			playing = false;
+			return false;
+		}
+		joypad.setButtons(1, input[position * 2] & 0xFF);
+		joypad.setButtons(2, input[position * 2 + 1] & 0xFF);
+		position++;
+		return true;
+	}
+
+	synchronized void write(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(romCrc);
+			out.writeInt(start);
+			out.writeInt(state.length);
+			CRC32 crc = new CRC32();
+			crc.update(state);
+			out.writeInt((int) crc.getValue());
+			out.write(state);
+			out.writeInt(frames);
+
+			int i = 0;
+			while (i < frames) {
+				int run = 1;
+				while (i + run < frames && input[(i + run) * 2] == input[i * 2]
+						&& input[(i + run) * 2 + 1] == input[i * 2 + 1]) {
+					run++;
+				}
+				writeVarint(out, run);
+				out.write(input[i * 2]);
+				out.write(input[i * 2 + 1]);
+				i += run;
+			}
+		}
+	}
+
+	static Movie read(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a movie: " + file);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Movie version " + version + ", expected " + VERSION);
+			}
+			Movie movie = new Movie();
+			movie.romCrc = in.readInt();
+			movie.start = in.readInt();
+			movie.state = new byte[in.readInt()];
+			int stateCrc = in.readInt();
+			in.readFully(movie.state);
+			CRC32 crc = new CRC32();
+			crc.update(movie.state);
+			if ((int) crc.getValue() != stateCrc) {
+				throw new IOException("Corrupt movie state: " + file);
+			}
+
+			int frames = in.readInt();
+			movie.input = new byte[Math.max(2, frames * 2)];
+			int i = 0;
+			while (i < frames) {
+				int run = readVarint(in);
+				byte port1 = in.readByte();
+				byte port2 = in.readByte();
+				if (i + run > frames) {
+					throw new IOException("Corrupt movie input: " + file);
+				}
+				for (int j = 0; j < run; j++, i++) {
+					movie.input[i * 2] = port1;
+					movie.input[i * 2 + 1] = port2;
+				}
+			}
+			movie.frames = frames;
+			return movie;
+		}
+	}
+
+	static int crc(int[] rom) {
+		CRC32 crc = new CRC32();
+		for (int i = 0; i < rom.length; i++) {
+			crc.update(rom[i]);
+		}
+		return (int) crc.getValue();
+	}
+
+	static void writeVarint(DataOutputStream out, int value) throws IOException {
+		while (value >= 0x80) {
+			out.write(value | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	static int readVarint(DataInputStream in) throws IOException {
+		int result = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			result |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return result;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("java gen.Movie rom.bin movie.gfm [-norender]");
+			return;
+		}
+		Genefusto emu = new Genefusto(false, false);
+		emu.memory.rom = FileLoader.readFile(new File(args[0]));
+		emu.vdp.render = !(args.length > 2 && args[2].equals("-norender"));
+		emu.powerOn();
+
+		Movie movie = read(new File(args[1]));
+		movie.play(emu);
+
+		long start = System.nanoTime();
+		while (movie.next(emu.joypad)) {
+			emu.runFrame();
+		}
+		long ms = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+
+		CRC32 crc = new CRC32();
+		crc.update(emu.state.save());
+		System.out.println(movie.frames + " frames in " + ms + "ms (" + (movie.frames * 1000L / ms) + " fps), state "
+				+ Long.toHexString(crc.getValue()));
+	}
+
+}
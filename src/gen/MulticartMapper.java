@@ -0,0 +1,58 @@
+package gen;
+
+import java.nio.ByteBuffer;
+
+//	The unlicensed multi-game carts: a write anywhere in A13000-A1303F chooses the game. The low
+//	6 bits of the address are the 64KB page of the ROM that appears at 0, the next pages follow it
+//	and wrap at 4MB.
+public class MulticartMapper implements Mapper {
+
+	final Bus bus;
+	int first;
+
+	MulticartMapper(Bus bus) {
+		this.bus = bus;
+	}
+
+	@Override
+	public void reset() {
+		first = 0;
+		map();
+	}
+
+	void map() {
+		for (int page = 0; page < Bus.CART_PAGES; page++) {
+			bus.romBase[page] = ((first + page) & (Bus.CART_PAGES - 1)) << Bus.CART_PAGE_SHIFT;
+		}
+	}
+
+	@Override
+	public void writeRegister(long address, long data, OperationSize size) {
+		if (address <= 0xA1303F) {
+			first = (int) address & 0x3F;
+			map();
+			bus.bankSwitched(0, first);
+		}
+	}
+
+	@Override
+	public long read(long address, OperationSize size) {
+		return bus.readRom(address, size);
+	}
+
+	@Override
+	public void write(long address, long data, OperationSize size) {
+	}
+
+	@Override
+	public void saveState(ByteBuffer b) {
+		b.putInt(first);
+	}
+
+	@Override
+	public void loadState(ByteBuffer b) {
+		first = b.getInt();
+		map();
+	}
+
+}
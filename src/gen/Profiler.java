@@ -0,0 +1,387 @@
+package gen;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//	Where the CPUs spend their instructions: which handlers to specialize first, which loops of a
+//	game dominate.
+//
+//	Everything is counted, not sampled: a counter per 68000 opcode (the 65536 of
+//	M68000.instructions), per 16 bytes of PC in ROM and RAM, per Z80 opcode with the prefixed
+//	tables apart (CB, DD, ED, FD, DDCB, FDCB) and per 16 bytes of Z80 PC.
+//
+//	The 68000 calls are followed with a shadow stack: JSR, BSR, TRAP and the interrupts push the
+//	target, each frame remembers A7 after the push and goes away when A7 is above it again (RTS,
+//	RTE, RTR or a game dropping the return address with ADDQ #4,SP). Each stack is a node of a
+//	tree, the instruction only adds 1 to the current node. The tree is written as folded stacks,
+//	one line per stack, for flamegraph.pl or speedscope.
+//
+//	-Dgenefusto.profile=dir profiles the window and writes at exit, or headless:
+//	java gen.Profiler rom.bin [-frames 3600] [-movie m.gfm] [-z80] [-top 30] [-out dir]
+public class Profiler {
+
+	static final int MAX_DEPTH = 256;
+
+	static final String[] Z80_TABLES = { "", "CB ", "DD ", "ED ", "FD ", "DDCB ", "FDCB " };
+	static final int Z80_CB = 1;
+	static final int Z80_DD = 2;
+	static final int Z80_ED = 3;
+	static final int Z80_FD = 4;
+	static final int Z80_DDCB = 5;
+	static final int Z80_FDCB = 6;
+
+	static class Node {
+		final int address;
+		final boolean interrupt;
+		final Node parent;
+		Map<Integer, Node> children;
+		long count;
+
+		Node(int address, boolean interrupt, Node parent) {
+			this.address = address;
+			this.interrupt = interrupt;
+			this.parent = parent;
+		}
+
+		Node child(int address, boolean interrupt) {
+			if (children == null) {
+				children = new HashMap<>();
+			}
+			//	the same address as a call and as a handler are different frames
+			Integer key = interrupt ? ~address : address;
+			Node node = children.get(key);
+			if (node == null) {
+				node = new Node(address, interrupt, this);
+				children.put(key, node);
+			}
+			return node;
+		}
+
+		String name() {
+			if (parent == null) {
+				return "reset";
+			}
+			return (interrupt ? "int_" : "sub_") + hex(address, 6);
+		}
+	}
+
+	final Genefusto emu;
+
+	final int[] opcodes = new int[0x10000];
+	final int[] romPc = new int[0x400000 >> 4];
+	final int[] ramPc = new int[0x10000 >> 4];
+	long otherPc;
+	long instructions;
+
+	final int[] z80Opcodes = new int[Z80_TABLES.length * 0x100];
+	final int[] z80Pc = new int[0x10000 >> 4];
+	long z80Instructions;
+
+	final Node root = new Node(0, false, null);
+	final Node[] stack = new Node[MAX_DEPTH];
+	final long[] stackSp = new long[MAX_DEPTH];
+	int depth;
+	Node current = root;
+	int opcode;
+
+	Profiler(Genefusto emu) {
+		this.emu = emu;
+	}
+
+	static Profiler create(Genefusto emu) {
+		if (System.getProperty("genefusto.profile") == null) {
+			return null;
+		}
+		//	every instruction has to run, as in main()
+		emu.idleSkip = false;
+		return new Profiler(emu);
+	}
+
+	//	before the 68000 runs the instruction at pc
+	void cpu(long pc) {
+		int opcode = (int) emu.bus.peek(pc, OperationSize.WORD);
+		this.opcode = opcode;
+		opcodes[opcode]++;
+		if (pc < 0x400000) {
+			romPc[(int) pc >> 4]++;
+		} else if (pc >= 0xE00000) {
+			ramPc[((int) pc & 0xFFFF) >> 4]++;
+		} else {
+			otherPc++;
+		}
+		instructions++;
+		current.count++;
+	}
+
+	//	after it, the calls and returns
+	void cpuDone() {
+		int opcode = this.opcode;
+		if ((opcode & 0xFFC0) == 0x4E80		//	JSR
+				|| (opcode & 0xFF00) == 0x6100		//	BSR
+				|| (opcode & 0xFFF0) == 0x4E40) {	//	TRAP
+			call(emu.cpu.PC, false);
+		} else if (opcode == 0x4E75 || opcode == 0x4E73 || opcode == 0x4E77) {	//	RTS, RTE, RTR
+			unwind(emu.cpu.getALong(7));
+		}
+	}
+
+	//	after the interrupt, the PC is the handler
+	void interrupt() {
+		call(emu.cpu.PC, true);
+	}
+
+	private void call(long target, boolean interrupt) {
+		long sp = emu.cpu.getALong(7);
+		unwind(sp);
+		if (depth == MAX_DEPTH) {
+			return;
+		}
+		stackSp[depth] = sp;
+		current = current.child((int) target, interrupt);
+		stack[depth++] = current;
+	}
+
+	//	drops the frames whose return address is already off the stack
+	private void unwind(long sp) {
+		while (depth > 0 && stackSp[depth - 1] < sp) {
+			depth--;
+		}
+		current = depth > 0 ? stack[depth - 1] : root;
+	}
+
+	//	before the Z80 runs the instruction at pc, the prefixes are read ahead
+	void z80(int pc, int opcode) {
+		Z80 z80 = emu.z80;
+		int table = 0;
+		if (opcode == 0xCB) {
+			table = Z80_CB;
+			opcode = z80.readMemory((pc + 1) & 0xFFFF);
+		} else if (opcode == 0xED) {
+			table = Z80_ED;
+			opcode = z80.readMemory((pc + 1) & 0xFFFF);
+		} else if (opcode == 0xDD || opcode == 0xFD) {
+			boolean ix = opcode == 0xDD;
+			opcode = z80.readMemory((pc + 1) & 0xFFFF);
+			if (opcode == 0xCB) {
+				table = ix ? Z80_DDCB : Z80_FDCB;
+				opcode = z80.readMemory((pc + 3) & 0xFFFF);
+			} else {
+				table = ix ? Z80_DD : Z80_FD;
+			}
+		}
+		z80Opcodes[(table << 8) | opcode]++;
+		z80Pc[(pc & 0xFFFF) >> 4]++;
+		z80Instructions++;
+	}
+
+	void report(PrintWriter out, int top) {
+		out.println("68000: " + instructions + " instructions");
+		out.println();
+		out.println("opcodes");
+		for (int i : top(opcodes, top)) {
+			out.println(line(hex(i, 4), opcodes[i], instructions) + "  " + Disassembler.handler(emu.cpu.instructions[i]));
+		}
+		out.println();
+		out.println("pc, 16 bytes");
+		int[] pcs = new int[romPc.length + ramPc.length];
+		System.arraycopy(romPc, 0, pcs, 0, romPc.length);
+		System.arraycopy(ramPc, 0, pcs, romPc.length, ramPc.length);
+		for (int i : top(pcs, top)) {
+			int address = i < romPc.length ? i << 4 : 0xFF0000 | ((i - romPc.length) << 4);
+			out.println(line(hex(address, 6), pcs[i], instructions));
+		}
+		if (otherPc > 0) {
+			out.println(line("other ", otherPc, instructions));
+		}
+		out.println();
+		out.println("subroutines, own instructions");
+		Map<String, long[]> self = new HashMap<>();
+		addSelf(root, self);
+		List<Map.Entry<String, long[]>> subs = new ArrayList<>(self.entrySet());
+		Collections.sort(subs, new Comparator<Map.Entry<String, long[]>>() {
+			@Override
+			public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+				return Long.compare(b.getValue()[0], a.getValue()[0]);
+			}
+		});
+		for (int i = 0; i < Math.min(top, subs.size()); i++) {
+			out.println(line(subs.get(i).getKey(), subs.get(i).getValue()[0], instructions));
+		}
+
+		if (z80Instructions > 0) {
+			out.println();
+			out.println("Z80: " + z80Instructions + " instructions");
+			out.println();
+			out.println("opcodes");
+			for (int i : top(z80Opcodes, top)) {
+				out.println(line(Z80_TABLES[i >> 8] + hex(i & 0xFF, 2), z80Opcodes[i], z80Instructions));
+			}
+			out.println();
+			out.println("pc, 16 bytes");
+			for (int i : top(z80Pc, top)) {
+				out.println(line(hex(i << 4, 4), z80Pc[i], z80Instructions));
+			}
+		}
+		out.flush();
+	}
+
+	private void addSelf(Node node, Map<String, long[]> self) {
+		if (node.count > 0) {
+			long[] count = self.get(node.name());
+			if (count == null) {
+				count = new long[1];
+				self.put(node.name(), count);
+			}
+			count[0] += node.count;
+		}
+		if (node.children != null) {
+			for (Node child : node.children.values()) {
+				addSelf(child, self);
+			}
+		}
+	}
+
+	//	"reset;sub_000340;sub_0012A0 12345", the count is of the instructions run in that stack
+	//	itself, not in the calls below it, since the profiler started
+	void writeFolded(Writer out) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		folded(root, sb, out);
+		out.flush();
+	}
+
+	private void folded(Node node, StringBuilder path, Writer out) throws IOException {
+		int length = path.length();
+		if (length > 0) {
+			path.append(';');
+		}
+		path.append(node.name());
+		if (node.count > 0) {
+			out.write(path.toString());
+			out.write(' ');
+			out.write(Long.toString(node.count));
+			out.write('\n');
+		}
+		if (node.children != null) {
+			for (Node child : node.children.values()) {
+				folded(child, path, out);
+			}
+		}
+		path.setLength(length);
+	}
+
+	void write(File dir, int top) {
+		dir.mkdirs();
+		try (PrintWriter out = new PrintWriter(new FileWriter(new File(dir, "profile.txt")))) {
+			report(out, top);
+		} catch (IOException e) {
+			System.out.println("Can't write the profile: " + e.getMessage());
+		}
+		try (Writer out = new FileWriter(new File(dir, "m68000.folded"))) {
+			writeFolded(out);
+		} catch (IOException e) {
+			System.out.println("Can't write the folded stacks: " + e.getMessage());
+		}
+	}
+
+	//	indexes of the "n" biggest counters, biggest first
+	static int[] top(int[] counts, int n) {
+		int[] best = new int[n];
+		int size = 0;
+		for (int i = 0; i < counts.length; i++) {
+			int c = counts[i];
+			if (c == 0 || (size == n && c <= counts[best[size - 1]])) {
+				continue;
+			}
+			int j = size < n ? size++ : n - 1;
+			while (j > 0 && counts[best[j - 1]] < c) {
+				best[j] = best[j - 1];
+				j--;
+			}
+			best[j] = i;
+		}
+		int[] result = new int[size];
+		System.arraycopy(best, 0, result, 0, size);
+		return result;
+	}
+
+	static String line(String name, long count, long total) {
+		return String.format("  %-10s %12d %6.2f%%", name, count, total == 0 ? 0 : count * 100.0 / total);
+	}
+
+	static String hex(int value, int digits) {
+		String s = Integer.toHexString(value).toUpperCase();
+		while (s.length() < digits) {
+			s = "0" + s;
+		}
+		return s;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("java gen.Profiler rom.bin [-frames N] [-movie m.gfm] [-z80] [-top N] [-out dir]");
+			return;
+		}
+		int frames = 3600;
+		int top = 30;
+		File movieFile = null;
+		File out = null;
+		boolean z80 = false;
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "-frames":
+					frames = Integer.parseInt(args[++i]);
+					break;
+				case "-top":
+					top = Integer.parseInt(args[++i]);
+					break;
+				case "-movie":
+					movieFile = new File(args[++i]);
+					break;
+				case "-out":
+					out = new File(args[++i]);
+					break;
+				case "-z80":
+					z80 = true;
+					break;
+				default:
+					throw new RuntimeException("Unknown option " + args[i]);
+			}
+		}
+
+		Genefusto emu = new Genefusto(false, false);
+		emu.memory.rom = FileLoader.readFile(new File(args[0]));
+		emu.runZ80 = z80;
+		emu.vdp.render = false;
+		//	every instruction has to run, the idle loop skip would hide the loops
+		emu.idleSkip = false;
+		emu.powerOn();
+		emu.profiler = new Profiler(emu);
+		Movie movie = null;
+		if (movieFile != null) {
+			movie = Movie.read(movieFile);
+			movie.play(emu);
+		}
+
+		for (int i = 0; i < frames; i++) {
+			if (movie != null) {
+				movie.next(emu.joypad);
+			}
+			emu.runFrame();
+		}
+
+		if (out != null) {
+			emu.profiler.write(out, top);
+		}
+		emu.profiler.report(new PrintWriter(System.out), top);
+	}
+
+}
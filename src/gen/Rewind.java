@@ -0,0 +1,286 @@
+package gen;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+//	Rewind history, a save state every "interval" frames kept in a ring of fixed size.
+//
+//	Each snapshot is stored as the XOR against the one before it, run length encoded. Most of RAM
+//	and VRAM doesn't change from one frame to the next, so the XOR is almost all zeros and a
+//	~200KB snapshot takes a few KB.
+//	Going back starts from the last snapshot (kept whole) and XORs the deltas in reverse, the
+//	oldest deltas can be dropped at any time to make room.
+//
+//	The emulation thread only copies the snapshot to a free buffer, the XOR and the encoding are
+//	done by the "rewind" thread. If it falls behind the snapshot is skipped.
+//
+//	Delta format: (zeros, length, bytes[length])... with the counts as varints.
+public class Rewind implements Runnable {
+
+	static final int POOL = 4;
+
+	static class Snapshot {
+		final byte[] data = new byte[SaveState.MAX_SIZE];
+		int size;
+	}
+
+	final SaveState state;
+	int interval = 1;
+	int frames;
+
+	//	raw snapshots going to the thread
+	final ArrayBlockingQueue<Snapshot> free = new ArrayBlockingQueue<>(POOL);
+	final ArrayBlockingQueue<Snapshot> pending = new ArrayBlockingQueue<>(POOL);
+	final AtomicInteger inFlight = new AtomicInteger();
+	long skipped;
+
+	//	the last snapshot, the deltas go back from it
+	byte[] current = new byte[SaveState.MAX_SIZE];
+	int size;
+	boolean hasCurrent;
+	//	worst case, one changed byte out of two
+	byte[] scratch = new byte[SaveState.MAX_SIZE + (SaveState.MAX_SIZE / 2) + 16];
+	int[] varint = new int[1];
+
+	//	deltas, oldest at "first"
+	final byte[] ring;
+	final int[] start;
+	final int[] length;
+	int first;
+	int count;
+	int writePos;
+
+	volatile boolean running;
+	Thread thread;
+
+	public Rewind(SaveState state, int bytes) {
+		this.state = state;
+		ring = new byte[bytes];
+		int maxEntries = Math.max(16, bytes / 256);
+		start = new int[maxEntries];
+		length = new int[maxEntries];
+		for (int i = 0; i < POOL; i++) {
+			free.add(new Snapshot());
+		}
+	}
+
+	public void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "rewind");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		running = false;
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+	}
+
+	//	emulation thread, once per frame
+	public void endFrame() {
+		frames++;
+		if (frames >= interval) {
+			frames = 0;
+			capture();
+		}
+	}
+
+	void capture() {
+		Snapshot snapshot = free.poll();
+		if (snapshot == null) {
+			skipped++;
+			return;
+		}
+		ByteBuffer b = state.save();
+		snapshot.size = b.remaining();
+		b.get(snapshot.data, 0, snapshot.size);
+
+		inFlight.incrementAndGet();
+		pending.add(snapshot);
+	}
+
+	//	emulation thread, goes back one snapshot and loads it. false if there is no history left.
+	public boolean stepBack() {
+		while (inFlight.get() > 0) {
+			LockSupport.parkNanos(100_000);
+		}
+		synchronized (this) {
+			if (count == 0) {
+				return false;
+			}
+			int newest = (first + count - 1) % start.length;
+			decode(ring, start[newest], length[newest]);
+			writePos = start[newest];
+			count--;
+
+			ByteBuffer b = state.buffer;
+			b.clear();
+			b.put(current, 0, size);
+			b.flip();
+			state.load(b);
+		}
+		frames = 0;
+		return true;
+	}
+
+	public synchronized void clear() {
+		hasCurrent = false;
+		count = 0;
+		first = 0;
+		writePos = 0;
+	}
+
+	public synchronized int snapshots() {
+		return count;
+	}
+
+	public synchronized long bytesUsed() {
+		long used = 0;
+		for (int i = 0; i < count; i++) {
+			used += length[(first + i) % start.length];
+		}
+		return used;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			Snapshot snapshot;
+			try {
+				snapshot = pending.poll(10, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				break;
+			}
+			if (snapshot == null) {
+				continue;
+			}
+			synchronized (this) {
+				compress(snapshot.data, snapshot.size);
+			}
+			free.add(snapshot);
+			inFlight.decrementAndGet();
+		}
+	}
+
+	void compress(byte[] raw, int n) {
+		if (!hasCurrent || n != size) {
+			System.arraycopy(raw, 0, current, 0, n);
+			size = n;
+			hasCurrent = true;
+			count = 0;
+			first = 0;
+			writePos = 0;
+			return;
+		}
+
+		byte[] prev = current;
+		byte[] out = scratch;
+		int o = 0;
+		int i = 0;
+		while (i < n) {
+			int zeros = i;
+			while (i < n && raw[i] == prev[i]) {
+				i++;
+			}
+			zeros = i - zeros;
+
+			int literal = i;
+			while (i < n && raw[i] != prev[i]) {
+				i++;
+			}
+			int literals = i - literal;
+
+			o = putVarint(out, o, zeros);
+			o = putVarint(out, o, literals);
+			for (int j = literal; j < i; j++) {
+				out[o++] = (byte) (raw[j] ^ prev[j]);
+			}
+		}
+		System.arraycopy(raw, 0, current, 0, n);
+
+		store(out, o);
+	}
+
+	//	XORs the delta into current, which goes back one snapshot
+	void decode(byte[] data, int offset, int len) {
+		int end = offset + len;
+		int pos = 0;
+		int[] value = varint;
+		while (offset < end) {
+			offset = getVarint(data, offset, value);
+			pos += value[0];
+			offset = getVarint(data, offset, value);
+			int literals = value[0];
+			for (int j = 0; j < literals; j++) {
+				current[pos++] ^= data[offset++];
+			}
+		}
+	}
+
+	void store(byte[] data, int len) {
+		if (len > ring.length) {
+			count = 0;
+			return;
+		}
+		int pos = writePos;
+		if (pos + len > ring.length) {
+			pos = 0;
+		}
+		while (count > 0 && (count == start.length || !fits(pos, len))) {
+			first = (first + 1) % start.length;
+			count--;
+		}
+
+		System.arraycopy(data, 0, ring, pos, len);
+		int index = (first + count) % start.length;
+		start[index] = pos;
+		length[index] = len;
+		count++;
+		writePos = pos + len;
+	}
+
+	//	the live deltas go from the oldest to writePos, around the end of the ring
+	private boolean fits(int pos, int len) {
+		int oldest = start[first];
+		if (oldest >= writePos) {
+			return pos >= writePos && pos + len <= oldest;
+		}
+		return pos >= writePos || pos + len <= oldest;
+	}
+
+	static int putVarint(byte[] out, int o, int value) {
+		while (value >= 0x80) {
+			out[o++] = (byte) (value | 0x80);
+			value >>>= 7;
+		}
+		out[o++] = (byte) value;
+		return o;
+	}
+
+	static int getVarint(byte[] data, int offset, int[] value) {
+		int result = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = data[offset++];
+			result |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		value[0] = result;
+		return offset;
+	}
+
+}
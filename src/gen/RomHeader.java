@@ -0,0 +1,182 @@
+package gen;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+//	The header at 0x100 of every cartridge, docs/Genesis_ROM_Format.txt
+//
+//	H100	system		'SEGA MEGA DRIVE' / 'SEGA GENESIS'
+//	H110	copyright	'(C)SEGA 1988.JUL'
+//	H120	domestic name, 48
+//	H150	overseas name, 48
+//	H180	type and serial	'GM XXXXXXX-XX'
+//	H18E	checksum
+//	H190	I/O support, 16
+//	H1A0	ROM start, end
+//	H1A8	RAM start, end
+//	H1B0	'RA', type, SRAM start, end
+//	H1F0	regions, 3
+//
+//	A lot of games have it wrong, Cartridge decides what to believe.
+public class RomHeader {
+
+	//	below this the checksum isn't worth the threads
+	static final int PARALLEL_BYTES = 1 << 20;
+	static final int CHUNK_BYTES = 256 * 1024;
+
+	final String system;
+	final String copyright;
+	final String domesticName;
+	final String overseasName;
+	final String serial;
+	final String io;
+	final String regions;
+
+	final int checksum;
+	final long romStart;
+	final long romEnd;
+
+	final boolean hasSram;
+	//	byte at H1B2: bit 6 battery, bits 4-3 10 even addresses, 11 odd addresses, 00 both
+	final int sramType;
+	final long sramStart;
+	final long sramEnd;
+
+	public RomHeader(int[] rom) {
+		system = text(rom, 0x100, 16);
+		copyright = text(rom, 0x110, 16);
+		domesticName = text(rom, 0x120, 48);
+		overseasName = text(rom, 0x150, 48);
+		serial = text(rom, 0x180, 14);
+		io = text(rom, 0x190, 16);
+		regions = text(rom, 0x1F0, 3);
+
+		checksum = (int) word(rom, 0x18E);
+		romStart = longword(rom, 0x1A0);
+		romEnd = longword(rom, 0x1A4);
+
+		hasSram = byteAt(rom, 0x1B0) == 'R' && byteAt(rom, 0x1B1) == 'A';
+		sramType = hasSram ? byteAt(rom, 0x1B2) : 0;
+		sramStart = hasSram ? longword(rom, 0x1B4) : 0;
+		sramEnd = hasSram ? longword(rom, 0x1B8) : 0;
+	}
+
+	boolean supports(char device) {
+		return io.indexOf(device) >= 0;
+	}
+
+	//	the old style is 'J', 'U', 'E' and the rest; the new one a hex digit with a bit per region:
+	//	1 Japan NTSC, 2 Japan PAL, 4 Americas, 8 Europe. A lone 'E' is Europe, not a mask
+	boolean region(char old, int bit) {
+		if (regions.indexOf('J') >= 0 || regions.indexOf('U') >= 0 || regions.indexOf('E') >= 0) {
+			return regions.indexOf(old) >= 0;
+		}
+		if (regions.length() == 1) {
+			int mask = Character.digit(regions.charAt(0), 16);
+			return mask > 0 && (mask & bit) != 0;
+		}
+		return false;
+	}
+
+	boolean japan() {
+		return region('J', 1);
+	}
+
+	boolean americas() {
+		return region('U', 4);
+	}
+
+	boolean europe() {
+		return region('E', 8);
+	}
+
+	//	the 16 bit sum of the words from 0x200 to the end
+	static int checksum(int[] rom) {
+		if (rom.length < PARALLEL_BYTES) {
+			return sum(rom, 0x200, rom.length);
+		}
+		return ForkJoinPool.commonPool().invoke(new Sum(rom, 0x200, rom.length));
+	}
+
+	static int sum(int[] rom, int from, int to) {
+		int sum = 0;
+		int i = from;
+		for (; i + 1 < to; i += 2) {
+			sum += (rom[i] << 8) | rom[i + 1];
+		}
+		if (i < to) {
+			sum += rom[i] << 8;
+		}
+		return sum & 0xFFFF;
+	}
+
+	//	every part starts at an even address, a word never gets split
+	static class Sum extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+
+		final int[] rom;
+		final int from;
+		final int to;
+
+		Sum(int[] rom, int from, int to) {
+			this.rom = rom;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (to - from <= CHUNK_BYTES) {
+				return sum(rom, from, to);
+			}
+			int middle = (from + (to - from) / 2) & ~1;
+			Sum first = new Sum(rom, from, middle);
+			first.fork();
+			int second = new Sum(rom, middle, to).compute();
+			return (first.join() + second) & 0xFFFF;
+		}
+	}
+
+	boolean checksumOk(int[] rom) {
+		return checksum(rom) == checksum;
+	}
+
+	static int byteAt(int[] rom, int address) {
+		return address < rom.length ? rom[address] : 0;
+	}
+
+	static long word(int[] rom, int address) {
+		return (byteAt(rom, address) << 8) | byteAt(rom, address + 1);
+	}
+
+	static long longword(int[] rom, int address) {
+		return (word(rom, address) << 16) | word(rom, address + 2);
+	}
+
+	//	the names are padded with spaces, some with zeros, and some in Shift-JIS
+	static String text(int[] rom, int address, int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			int c = byteAt(rom, address + i);
+			sb.append(c >= 0x20 && c < 0x7F ? (char) c : ' ');
+		}
+		return sb.toString().trim().replaceAll("  +", " ");
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(overseasName.isEmpty() ? domesticName : overseasName);
+		sb.append(" [").append(serial).append("] ").append(copyright);
+		sb.append(", region ").append(regions);
+		sb.append(", ROM ").append(Trace.hex(romStart, 6)).append('-').append(Trace.hex(romEnd, 6));
+		if (hasSram) {
+			sb.append(", SRAM ").append(Trace.hex(sramStart, 6)).append('-').append(Trace.hex(sramEnd, 6));
+		}
+		if (!io.isEmpty()) {
+			sb.append(", I/O ").append(io);
+		}
+		return sb.toString();
+	}
+
+}
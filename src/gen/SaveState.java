@@ -0,0 +1,181 @@
+package gen;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import gen.telemetry.StateEvent;
+
+//	Snapshot of the whole machine in a binary buffer.
+//
+//	Every component writes its own fields in a fixed order (saveState / loadState), the header only
+//	has a magic, the version, the flags and the size of the ROM it was taken with. A change in the
+//	layout of any component has to bump VERSION, old snapshots are rejected instead of loaded wrong.
+//
+//	A CORE snapshot leaves out RAM, SRAM and VRAM, forks share those instead of copying them.
+//
+//	The buffer is direct and allocated once, save() and load() don't create objects. Rewind and
+//	run ahead keep their own copies of it.
+//
+//	What can be rebuilt is left out: the ROM, the render buffers, the sprite tables (evaluated
+//	again at line 0) and the caches.
+public class SaveState {
+
+	static final int MAGIC = 0x47465354;	//	"GFST"
+	static final int VERSION = 4;
+	
+	static final int CORE = 1;
+
+	//	RAM, SRAM, VRAM and Z80 RAM take ~200KB, the rest is a few hundred bytes
+	static final int MAX_SIZE = 0x40000;
+
+	final Genefusto emu;
+	final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_SIZE);
+
+	public SaveState(Genefusto emu) {
+		this.emu = emu;
+	}
+
+	//	the snapshot is left in the buffer, from 0 to limit
+	public ByteBuffer save() {
+		return save(0);
+	}
+
+	public ByteBuffer save(int flags) {
+		StateEvent event = emu.telemetry != null ? emu.telemetry.stateStart() : null;
+		ByteBuffer b = buffer;
+		b.clear();
+
+		b.putInt(MAGIC);
+		b.putInt(VERSION);
+		b.putInt(flags);
+		b.putInt(emu.memory.rom.length);
+
+		emu.cpu.saveState(b);
+		emu.z80.saveState(b);
+		emu.vdp.saveState(b);
+		emu.bus.saveState(b);
+		emu.joypad.saveState(b);
+		if ((flags & CORE) == 0) {
+			emu.memory.saveState(b);
+			emu.vdp.saveVram(b);
+		}
+
+		b.flip();
+		if (event != null) {
+			emu.telemetry.stateEnd(event, "save", b.limit(), (flags & CORE) != 0);
+		}
+		return b;
+	}
+
+	//	from the position of source, which is left after the snapshot
+	public void load(ByteBuffer source) {
+		StateEvent event = emu.telemetry != null ? emu.telemetry.stateStart() : null;
+		ByteBuffer b = source;
+		int start = b.position();
+
+		if (b.getInt() != MAGIC) {
+			throw new RuntimeException("Not a save state");
+		}
+		int version = b.getInt();
+		if (version != VERSION) {
+			throw new RuntimeException("Save state version " + version + ", expected " + VERSION);
+		}
+		int flags = b.getInt();
+		int romSize = b.getInt();
+		if (romSize != emu.memory.rom.length) {
+			throw new RuntimeException("Save state of a different ROM");
+		}
+
+		emu.cpu.loadState(b);
+		emu.z80.loadState(b);
+		emu.vdp.loadState(b);
+		emu.bus.loadState(b);
+		emu.joypad.loadState(b);
+		if ((flags & CORE) == 0) {
+			emu.memory.loadState(b);
+			emu.vdp.loadVram(b);
+			emu.vdp.restored();
+		}
+
+		//	derived state
+		emu.bus.interrupts.update();
+		emu.idle.head = -1;
+		emu.idle.idle = false;
+		
+		if (event != null) {
+			emu.telemetry.stateEnd(event, "load", b.position() - start, (flags & CORE) != 0);
+		}
+	}
+
+	public void load() {
+		buffer.rewind();
+		load(buffer);
+	}
+
+	public void write(File file) throws IOException {
+		save();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		buffer.rewind();
+	}
+
+	public void read(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			if (raf.length() > MAX_SIZE) {
+				throw new IOException("Save state too big: " + file);
+			}
+			FileChannel channel = raf.getChannel();
+			buffer.clear();
+			while (channel.read(buffer) > 0) {
+			}
+			buffer.flip();
+		}
+		load(buffer);
+	}
+
+	public int size() {
+		return buffer.limit();
+	}
+
+	//	the arrays of bytes are kept in ints all over the emulator, one byte each is enough here
+	static void putBytes(ByteBuffer b, int[] data) {
+		for (int i = 0; i < data.length; i++) {
+			b.put((byte) data[i]);
+		}
+	}
+
+	static void getBytes(ByteBuffer b, int[] data) {
+		for (int i = 0; i < data.length; i++) {
+			data[i] = b.get() & 0xFF;
+		}
+	}
+
+	static void putInts(ByteBuffer b, int[] data) {
+		for (int i = 0; i < data.length; i++) {
+			b.putInt(data[i]);
+		}
+	}
+
+	static void getInts(ByteBuffer b, int[] data) {
+		for (int i = 0; i < data.length; i++) {
+			data[i] = b.getInt();
+		}
+	}
+
+	static void putBoolean(ByteBuffer b, boolean value) {
+		b.put((byte) (value ? 1 : 0));
+	}
+
+	static boolean getBoolean(ByteBuffer b) {
+		return b.get() != 0;
+	}
+
+}
@@ -0,0 +1,132 @@
+package gen;
+
+import java.nio.ByteBuffer;
+
+//	Battery SRAM from start to end, kept in Memory.sram. Most carts only wire it to the odd bytes
+//	(or the even ones), the other lane reads FF.
+//
+//	If the ROM reaches the SRAM the game switches between them with A130F1: bit 0 SRAM, bit 1
+//	write protected. Sonic 3 does. If the ROM ends before, the SRAM is always there.
+public class SramMapper implements Mapper {
+
+	final Bus bus;
+	final Memory memory;
+	final long start;
+	final long end;
+	final Cartridge.Lanes lanes;
+	final boolean switched;
+
+	boolean enabled;
+	boolean writable;
+
+	SramMapper(Bus bus, long start, long end, Cartridge.Lanes lanes, int romSize) {
+		this.bus = bus;
+		this.memory = bus.memory;
+		this.start = start & ~1;
+		this.end = end;
+		this.lanes = lanes;
+		this.switched = romSize > this.start;
+	}
+
+	@Override
+	public void reset() {
+		enabled = !switched;
+		writable = true;
+		map();
+	}
+
+	void map() {
+		bus.mapPages((int) start >> Bus.CART_PAGE_SHIFT, (int) end >> Bus.CART_PAGE_SHIFT, enabled ? this : null);
+	}
+
+	@Override
+	public void writeRegister(long address, long data, OperationSize size) {
+		//	with the ROM ending before the SRAM there is nothing to switch
+		if (!switched) {
+			return;
+		}
+		if (address == 0xA130F1 || (address == 0xA130F0 && size != OperationSize.BYTE)) {
+			enabled = (data & 1) != 0;
+			writable = (data & 2) == 0;
+			map();
+		}
+	}
+
+	@Override
+	public long read(long address, OperationSize size) {
+		if (address < start || address > end) {
+			return bus.readRom(address, size);
+		}
+		int offset = (int) (address - start);
+		switch (size) {
+			case BYTE:
+				return readByte(offset);
+			case WORD:
+				return (readByte(offset) << 8) | readByte(offset + 1);
+			default:
+				return ((long) readByte(offset) << 24) | (readByte(offset + 1) << 16) | (readByte(offset + 2) << 8) | readByte(offset + 3);
+		}
+	}
+
+	int readByte(int offset) {
+		if (!wired(offset) || offset >= memory.sram.length) {
+			return 0xFF;
+		}
+		return memory.sram[offset];
+	}
+
+	@Override
+	public void write(long address, long data, OperationSize size) {
+		if (address < start || address > end || !writable) {
+			return;
+		}
+		int offset = (int) (address - start);
+		switch (size) {
+			case BYTE:
+				writeByte(offset, data);
+				break;
+			case WORD:
+				writeByte(offset, data >> 8);
+				writeByte(offset + 1, data);
+				break;
+			default:
+				writeByte(offset, data >> 24);
+				writeByte(offset + 1, data >> 16);
+				writeByte(offset + 2, data >> 8);
+				writeByte(offset + 3, data);
+				break;
+		}
+	}
+
+	void writeByte(int offset, long data) {
+		if (wired(offset)) {
+			memory.writeSRAM(offset, (int) data & 0xFF, OperationSize.BYTE);
+		}
+	}
+
+	//	start is even, the offset has the parity of the address
+	boolean wired(int offset) {
+		switch (lanes) {
+			case ODD:
+				return (offset & 1) == 1;
+			case EVEN:
+				return (offset & 1) == 0;
+			default:
+				return true;
+		}
+	}
+
+	@Override
+	public void saveState(ByteBuffer b) {
+		SaveState.putBoolean(b, enabled);
+		SaveState.putBoolean(b, writable);
+	}
+
+	@Override
+	public void loadState(ByteBuffer b) {
+		enabled = SaveState.getBoolean(b);
+		writable = SaveState.getBoolean(b);
+		map();
+	}
+
+}
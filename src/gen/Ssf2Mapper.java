@@ -0,0 +1,68 @@
+package gen;
+
+import java.nio.ByteBuffer;
+
+//	https://emu-docs.org/Genesis/ssf2.txt
+//	8 banks of 512KB, A130F3 to A130FF choose the page of the ROM seen in banks 1 to 7, bank 0 is
+//	always the first 512KB. A page is specified with 6 bits (bits 7 and 6 are always 0) thus
+//	allowing a possible 64 pages (SSFII only has 10, though.)
+public class Ssf2Mapper implements Mapper {
+
+	static final int BANK_SIZE = 0x80000;
+	static final int PAGES_PER_BANK = BANK_SIZE >> Bus.CART_PAGE_SHIFT;
+
+	final Bus bus;
+	final int[] banks = new int[8];
+
+	Ssf2Mapper(Bus bus) {
+		this.bus = bus;
+	}
+
+	@Override
+	public void reset() {
+		for (int bank = 0; bank < banks.length; bank++) {
+			banks[bank] = bank;
+			map(bank);
+		}
+	}
+
+	void map(int bank) {
+		for (int i = 0; i < PAGES_PER_BANK; i++) {
+			bus.romBase[bank * PAGES_PER_BANK + i] = banks[bank] * BANK_SIZE + (i << Bus.CART_PAGE_SHIFT);
+		}
+	}
+
+	@Override
+	public void writeRegister(long address, long data, OperationSize size) {
+		//	A130F1 is the SRAM register
+		if (address >= 0xA130F3 && (address & 1) == 1) {
+			int bank = (int) (address - 0xA130F1) >> 1;
+			banks[bank] = (int) data & 0x3F;
+			map(bank);
+			bus.bankSwitched(bank, banks[bank]);
+		}
+	}
+
+	@Override
+	public long read(long address, OperationSize size) {
+		return bus.readRom(address, size);
+	}
+
+	@Override
+	public void write(long address, long data, OperationSize size) {
+	}
+
+	@Override
+	public void saveState(ByteBuffer b) {
+		SaveState.putInts(b, banks);
+	}
+
+	@Override
+	public void loadState(ByteBuffer b) {
+		SaveState.getInts(b, banks);
+		for (int bank = 0; bank < banks.length; bank++) {
+			map(bank);
+		}
+	}
+
+}
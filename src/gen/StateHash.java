@@ -0,0 +1,203 @@
+package gen;
+
+import java.io.File;
+import java.io.IOException;
+
+//	Fingerprint of the machine at the end of a frame, one 64 bit hash per component (FNV-1a).
+//
+//	RAM and VRAM are hashed by 1KB pages, only the pages written since the last frame are hashed
+//	again (Memory.ramDirty, VDP.vramDirty), the rest keep the hash they had. CPU registers, CRAM,
+//	VSRAM, the Z80 and the picture are small enough to hash whole every frame.
+//	Only one StateHash per machine, it clears the dirty flags.
+//
+//	Checker: java gen.StateHash rom.bin movie.gfm [-b noidleskip] [-b z80hle] [-noframe]
+//	plays the movie on two machines at once, frame by frame, and stops at the first frame where a
+//	component differs. The -b options change the second machine, to compare an optimization with
+//	the plain interpreter. Without them it checks that two runs are the same. With -b z80hle the
+//	second machine doesn't interpret the Z80 of the games it recognizes, the Z80 is left out.
+public class StateHash {
+
+	static final long OFFSET = 0xCBF29CE484222325L;
+	static final long PRIME = 0x100000001B3L;
+
+	static final int CPU = 0;
+	static final int RAM = 1;
+	static final int VRAM = 2;
+	static final int CRAM = 3;
+	static final int VSRAM = 4;
+	static final int Z80 = 5;
+	static final int FRAME = 6;
+	static final String[] NAMES = { "CPU", "RAM", "VRAM", "CRAM", "VSRAM", "Z80", "FRAME" };
+
+	final Genefusto emu;
+	final long[] ramPages = new long[Memory.RAM_PAGES];
+	final long[] vramPages;
+	final long[] components = new long[NAMES.length];
+	final long[] registers = new long[17];
+	boolean first = true;
+
+	//	the picture, off when the machine doesn't draw
+	boolean frame = true;
+	//	the Z80 RAM and registers, off when the other machine doesn't run the same Z80
+	boolean z80 = true;
+
+	public StateHash(Genefusto emu) {
+		this.emu = emu;
+		vramPages = new long[emu.vdp.vramDirty.length];
+	}
+
+	//	components holds the hash of each one
+	public long hash() {
+		M68000 cpu = emu.cpu;
+		Memory memory = emu.memory;
+		VDP vdp = emu.vdp;
+
+		cpu.saveRegisters(registers);
+		long h = OFFSET;
+		for (int i = 0; i < registers.length; i++) {
+			h = mix(h, registers[i]);
+		}
+		h = mix(h, cpu.PC);
+		h = mix(h, cpu.SSP);
+		h = mix(h, cpu.USP);
+		components[CPU] = h;
+
+		for (int i = 0; i < ramPages.length; i++) {
+			if (first || memory.ramDirty[i]) {
+				memory.ramDirty[i] = false;
+				ramPages[i] = hash(OFFSET, memory.ramPages[i], 0, Memory.PAGE_SIZE);
+			}
+		}
+		components[RAM] = hash(OFFSET, ramPages);
+
+		int pageSize = vdp.vram.length / vramPages.length;
+		for (int i = 0; i < vramPages.length; i++) {
+			if (first || vdp.vramDirty[i]) {
+				vdp.vramDirty[i] = false;
+				vramPages[i] = hash(OFFSET, vdp.vram, i * pageSize, pageSize);
+			}
+		}
+		components[VRAM] = hash(OFFSET, vramPages);
+		first = false;
+
+		components[CRAM] = hash(OFFSET, vdp.cram, 0, vdp.cram.length);
+		components[VSRAM] = hash(OFFSET, vdp.vsram, 0, vdp.vsram.length);
+
+		h = OFFSET;
+		if (z80) {
+			h = hash(h, emu.z80.memory, 0, emu.z80.memory.length);
+			h = mix(h, emu.z80.PC);
+			h = mix(h, emu.z80.SP);
+		}
+		components[Z80] = h;
+
+		h = OFFSET;
+		if (frame) {
+			int width = vdp.screenWidth();
+			int height = vdp.screenHeight();
+			for (int x = 0; x < width; x++) {
+				h = hash(h, vdp.screenData[x], 0, height);
+			}
+		}
+		components[FRAME] = h;
+
+		return hash(OFFSET, components);
+	}
+
+	//	first different component, -1 if none
+	int compare(StateHash other) {
+		for (int i = 0; i < components.length; i++) {
+			if (components[i] != other.components[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	static long mix(long h, long value) {
+		return (h ^ value) * PRIME;
+	}
+
+	static long hash(long h, int[] data, int from, int length) {
+		for (int i = from; i < from + length; i++) {
+			h = (h ^ data[i]) * PRIME;
+		}
+		return h;
+	}
+
+	static long hash(long h, long[] data) {
+		for (int i = 0; i < data.length; i++) {
+			h = (h ^ data[i]) * PRIME;
+		}
+		return h;
+	}
+
+	static final String USAGE = "java gen.StateHash rom.bin movie.gfm [-b noidleskip] [-b z80hle] [-noframe]";
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println(USAGE);
+			return;
+		}
+		int[] rom = FileLoader.readFile(new File(args[0]));
+		File movieFile = new File(args[1]);
+
+		Genefusto a = new Genefusto(false, false);
+		Genefusto b = new Genefusto(false, false);
+		boolean frame = true;
+		String engine = "same";
+		for (int i = 2; i < args.length; i++) {
+			String option = args[i].equals("-b") && i + 1 < args.length ? args[i + 1] : null;
+			if (args[i].equals("-noframe")) {
+				frame = false;
+			} else if ("noidleskip".equals(option)) {
+				b.idleSkip = !b.idleSkip;
+				engine = args[++i];
+			} else if ("z80hle".equals(option)) {
+				b.bus.z80Hle.enabled = !b.bus.z80Hle.enabled;
+				engine = args[++i];
+			} else {
+				System.out.println("Unknown option " + args[i] + (option != null ? " " + option : ""));
+				System.out.println(USAGE);
+				return;
+			}
+		}
+
+		boolean z80 = a.bus.z80Hle.enabled == b.bus.z80Hle.enabled;
+
+		Genefusto[] machines = { a, b };
+		Movie[] movies = new Movie[2];
+		StateHash[] hashes = new StateHash[2];
+		for (int i = 0; i < 2; i++) {
+			machines[i].memory.rom = rom;
+			machines[i].vdp.render = frame;
+			machines[i].powerOn();
+			movies[i] = Movie.read(movieFile);
+			movies[i].play(machines[i]);
+			hashes[i] = new StateHash(machines[i]);
+			hashes[i].frame = frame;
+			hashes[i].z80 = z80;
+		}
+
+		int frames = 0;
+		while (movies[0].next(a.joypad) && movies[1].next(b.joypad)) {
+			a.runFrame();
+			b.runFrame();
+			frames++;
+			long ha = hashes[0].hash();
+			long hb = hashes[1].hash();
+			if (ha != hb) {
+				int component = hashes[0].compare(hashes[1]);
+				System.out.println("Frame " + frames + ": " + NAMES[component] + " differs (" + engine + ")");
+				for (int i = 0; i < NAMES.length; i++) {
+					System.out.println("  " + NAMES[i] + "\t" + Long.toHexString(hashes[0].components[i])
+							+ "\t" + Long.toHexString(hashes[1].components[i]));
+				}
+				System.out.println("  PC " + Long.toHexString(a.cpu.PC) + "\t" + Long.toHexString(b.cpu.PC));
+				System.exit(1);
+			}
+		}
+		System.out.println(frames + " frames, no differences (" + engine + ")");
+	}
+
+}
@@ -0,0 +1,182 @@
+package gen;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import gen.telemetry.BankSwitchEvent;
+import gen.telemetry.DmaEvent;
+import gen.telemetry.EmulatorMXBean;
+import gen.telemetry.FrameEvent;
+import gen.telemetry.InterruptEvent;
+import gen.telemetry.StateEvent;
+
+//	-Dgenefusto.telemetry=true: JFR events (category Genefusto) and the gen:type=Genefusto MBean.
+//
+//	Without the property Genefusto.telemetry is null and every hook is a null check on the frame,
+//	DMA, state, bank switch or interrupt path, nothing per instruction. With it, an event is only
+//	filled when a recording has it enabled (isEnabled()), the JIT removes the rest.
+//
+//	java -Dgenefusto.telemetry=true -XX:StartFlightRecording=filename=gen.jfr gen.Genefusto
+//	The MBean only exists for the machine with window.
+public class Telemetry implements EmulatorMXBean {
+
+	static final int WINDOW = 60;
+
+	final Genefusto emu;
+
+	FrameEvent frameEvent;
+	volatile long frames;
+	final long[] cpuPerFrame = new long[WINDOW];
+	final long[] z80PerFrame = new long[WINDOW];
+	long lastCpu;
+	long lastZ80;
+
+	Telemetry(Genefusto emu) {
+		this.emu = emu;
+	}
+
+	static Telemetry create(Genefusto emu, boolean window) {
+		if (!Boolean.getBoolean("genefusto.telemetry")) {
+			return null;
+		}
+		Telemetry telemetry = new Telemetry(emu);
+		if (window) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(telemetry, new ObjectName("gen:type=Genefusto"));
+			} catch (Exception e) {
+				System.out.println("Can't register the MBean: " + e.getMessage());
+			}
+		}
+		return telemetry;
+	}
+
+	void frameStart() {
+		FrameEvent event = new FrameEvent();
+		if (event.isEnabled()) {
+			event.begin();
+			frameEvent = event;
+		}
+	}
+
+	void frameEnd() {
+		long cpu = emu.cpuInstructions - lastCpu;
+		long z80 = emu.z80Instructions - lastZ80;
+		lastCpu = emu.cpuInstructions;
+		lastZ80 = emu.z80Instructions;
+		int slot = (int) (frames % WINDOW);
+		cpuPerFrame[slot] = cpu;
+		z80PerFrame[slot] = z80;
+		frames++;
+
+		FrameEvent event = frameEvent;
+		if (event != null) {
+			frameEvent = null;
+			event.frame = frames;
+			event.cpuInstructions = cpu;
+			event.z80Instructions = z80;
+			event.commit();
+		}
+	}
+
+	void dma(String mode, int length, long source) {
+		DmaEvent event = new DmaEvent();
+		if (event.isEnabled()) {
+			event.mode = mode;
+			event.length = length;
+			event.source = source;
+			if (source <= 0x3FFFFF) {
+				event.region = "ROM";
+			} else if (source >= 0xE00000) {
+				event.region = "RAM";
+			} else {
+				event.region = "other";
+			}
+			event.commit();
+		}
+	}
+
+	//	begun, or null if no recording wants it
+	StateEvent stateStart() {
+		StateEvent event = new StateEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	void stateEnd(StateEvent event, String operation, int bytes, boolean core) {
+		event.operation = operation;
+		event.bytes = bytes;
+		event.core = core;
+		event.commit();
+	}
+
+	void bankSwitch(int bank, int page) {
+		BankSwitchEvent event = new BankSwitchEvent();
+		if (event.isEnabled()) {
+			event.bank = bank;
+			event.page = page;
+			event.commit();
+		}
+	}
+
+	void interrupt(int level, long pc, long handler) {
+		InterruptEvent event = new InterruptEvent();
+		if (event.isEnabled()) {
+			event.level = level;
+			event.pc = pc;
+			event.handler = handler;
+			event.commit();
+		}
+	}
+
+	@Override
+	public long getFrames() {
+		return frames;
+	}
+
+	@Override
+	public double getCpuInstructionsPerFrame() {
+		return average(cpuPerFrame);
+	}
+
+	@Override
+	public double getZ80InstructionsPerFrame() {
+		return average(z80PerFrame);
+	}
+
+	@Override
+	public long getIdleLoopSkips() {
+		return emu.idle.loopsSkipped;
+	}
+
+	@Override
+	public long getDroppedFrames() {
+		return emu.pacer.late;
+	}
+
+	@Override
+	public long getAudioUnderruns() {
+		return emu.audio.getUnderruns();
+	}
+
+	@Override
+	public double getSpeed() {
+		return emu.pacer.getSpeed();
+	}
+
+	private double average(long[] values) {
+		int n = (int) Math.min(frames, WINDOW);
+		if (n == 0) {
+			return 0;
+		}
+		long sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += values[i];
+		}
+		return sum / (double) n;
+	}
+
+}
@@ -0,0 +1,229 @@
+package gen;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+//	Headless throughput of a ROM, one number to compare builds and to size machines.
+//
+//	java gen.Throughput rom.bin [-frames 3600] [-warmup 600] [-movie m.gfm] [-z80] [-norender]
+//		[-json result.json]
+//
+//	Warmup frames first (JIT), then the measured ones. Reports frames per second, 68000 and Z80
+//	instructions per second, VDP lines per second, DMA bytes and allocated bytes per frame.
+//	The movie gives the input, the warmup takes the first frames of it.
+//
+//	Where the time goes is sampled: every millisecond a "sampler" thread looks at the stack of the
+//	emulation thread and counts the innermost emulator class. Timing every call would cost more
+//	than most of what is measured. DMA counts when there is a dma* method of VDP anywhere in the
+//	stack, as it reads through the bus. Stacks are only taken at safepoints, the split is an
+//	approximation, the counters above are exact.
+public class Throughput {
+
+	static final String[] SUBSYSTEMS = { "m68000", "z80", "vdp_render", "vdp", "dma", "bus", "other" };
+	static final int M68000 = 0;
+	static final int Z80 = 1;
+	static final int VDP_RENDER = 2;
+	static final int VDP = 3;
+	static final int DMA = 4;
+	static final int BUS = 5;
+	static final int OTHER = 6;
+
+	static class Sampler extends Thread {
+		final Thread target;
+		final long[] samples = new long[SUBSYSTEMS.length];
+		volatile boolean running = true;
+
+		Sampler(Thread target) {
+			super("sampler");
+			this.target = target;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				StackTraceElement[] stack = target.getStackTrace();
+				int subsystem = classify(stack);
+				if (subsystem >= 0) {
+					samples[subsystem]++;
+				}
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		long total() {
+			long total = 0;
+			for (long s : samples) {
+				total += s;
+			}
+			return total;
+		}
+	}
+
+	static int classify(StackTraceElement[] stack) {
+		for (StackTraceElement frame : stack) {
+			if (frame.getClassName().equals("gen.VDP") && frame.getMethodName().startsWith("dma")) {
+				return DMA;
+			}
+		}
+		for (StackTraceElement frame : stack) {
+			String type = frame.getClassName();
+			if (!type.startsWith("gen.")) {
+				continue;
+			}
+			if (type.equals("gen.Bus") || type.equals("gen.Memory")) {
+				return BUS;
+			} else if (type.equals("gen.VDP")) {
+				String method = frame.getMethodName();
+				if (method.startsWith("render") || method.equals("compaginateImage") || method.equals("evaluateSprites")) {
+					return VDP_RENDER;
+				}
+				return VDP;
+			} else if (type.startsWith("gen.Z80")) {
+				return Z80;
+			} else if (type.equals("gen.M68000") || type.startsWith("gen.instruction.") || type.startsWith("gen.addressing.")) {
+				return M68000;
+			}
+			return OTHER;
+		}
+		return -1;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("java gen.Throughput rom.bin [-frames N] [-warmup N] [-movie m.gfm] [-z80] [-norender] [-json file]");
+			return;
+		}
+		int frames = 3600;
+		int warmup = 600;
+		File movieFile = null;
+		File json = null;
+		boolean z80 = false;
+		boolean render = true;
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "-frames":
+					frames = Integer.parseInt(args[++i]);
+					break;
+				case "-warmup":
+					warmup = Integer.parseInt(args[++i]);
+					break;
+				case "-movie":
+					movieFile = new File(args[++i]);
+					break;
+				case "-json":
+					json = new File(args[++i]);
+					break;
+				case "-z80":
+					z80 = true;
+					break;
+				case "-norender":
+					render = false;
+					break;
+				default:
+					throw new RuntimeException("Unknown option " + args[i]);
+			}
+		}
+		if (frames <= 0 || warmup < 0) {
+			throw new RuntimeException("-frames has to be more than 0 and -warmup 0 or more");
+		}
+
+		File romFile = new File(args[0]);
+		Genefusto emu = new Genefusto(false, false);
+		emu.memory.rom = FileLoader.readFile(romFile);
+		emu.runZ80 = z80;
+		emu.vdp.render = render;
+		emu.powerOn();
+		Movie movie = null;
+		if (movieFile != null) {
+			movie = Movie.read(movieFile);
+			movie.play(emu);
+		}
+
+		for (int i = 0; i < warmup; i++) {
+			if (movie != null) {
+				movie.next(emu.joypad);
+			}
+			emu.runFrame();
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Sampler sampler = new Sampler(Thread.currentThread());
+
+		long cpu = emu.cpuInstructions;
+		long z80Count = emu.z80Instructions;
+		long lines = emu.vdp.lines;
+		long dma = emu.vdp.dmaBytes;
+		long allocated = threads.getCurrentThreadAllocatedBytes();
+		sampler.start();
+		long start = System.nanoTime();
+
+		int done = 0;
+		while (done < frames) {
+			if (movie != null) {
+				movie.next(emu.joypad);
+			}
+			emu.runFrame();
+			done++;
+		}
+
+		long nanos = System.nanoTime() - start;
+		sampler.running = false;
+		allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+		cpu = emu.cpuInstructions - cpu;
+		z80Count = emu.z80Instructions - z80Count;
+		lines = emu.vdp.lines - lines;
+		dma = emu.vdp.dmaBytes - dma;
+		try {
+			sampler.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		double seconds = nanos / 1e9;
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n");
+		field(sb, "rom", '"' + romFile.getName().replace("\"", "\\\"") + '"');
+		field(sb, "java", '"' + System.getProperty("java.version") + '"');
+		field(sb, "frames", Integer.toString(done));
+		field(sb, "seconds", format(seconds));
+		field(sb, "fps", format(done / seconds));
+		field(sb, "m68000_ips", format(cpu / seconds));
+		field(sb, "z80_ips", format(z80Count / seconds));
+		field(sb, "vdp_lines_per_second", format(lines / seconds));
+		field(sb, "dma_bytes_per_frame", format(dma / (double) done));
+		field(sb, "allocated_bytes_per_frame", format(allocated / (double) done));
+		field(sb, "samples", Long.toString(sampler.total()));
+		sb.append("  \"time\": {");
+		long total = Math.max(1, sampler.total());
+		for (int i = 0; i < SUBSYSTEMS.length; i++) {
+			sb.append(i == 0 ? "\n" : ",\n");
+			sb.append("    \"").append(SUBSYSTEMS[i]).append("\": ").append(format(sampler.samples[i] / (double) total));
+		}
+		sb.append("\n  }\n}\n");
+
+		System.out.print(sb);
+		if (json != null) {
+			try (Writer out = new FileWriter(json)) {
+				out.write(sb.toString());
+			}
+		}
+	}
+
+	static void field(StringBuilder sb, String name, String value) {
+		sb.append("  \"").append(name).append("\": ").append(value).append(",\n");
+	}
+
+	static String format(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+}
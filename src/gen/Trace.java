@@ -0,0 +1,150 @@
+package gen;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+
+//	What used to be println in the hot paths: accesses to nothing, writes to the ROM, unknown
+//	opcodes, the Z80 line log. A game that does it every frame filled the console and ran at the
+//	speed of the console.
+//
+//	Now every event is a record of 4 longs in a ring of SIZE, nothing is allocated or formatted:
+//		0	timestamp, VDP lines since power on
+//		1	kind (8) | cpu (7) | opcode known (1) | opcode (16) | pc (32)
+//		2	address
+//		3	value
+//	The first event of each kind is printed as it happens, then once a second a line per kind with
+//	how many there were and the last one. The whole ring is decoded only by dump(), when the
+//	emulation dies or at exit with -Dgenefusto.trace=file.
+public class Trace {
+
+	static final int SIZE = 1 << 14;
+	static final int WORDS = 4;
+	static final int SUMMARY_FRAMES = 60;
+
+	static final int NOT_MAPPED = 0;
+	static final int ROM_WRITE = 1;
+	static final int WRITE_NOT_SUPPORTED = 2;
+	static final int IO_NOT_IMPLEMENTED = 3;
+	static final int UNKNOWN_OPCODE = 4;
+	static final int Z80_INSTRUCTION = 5;
+	static final int Z80_PSG_WRITE = 6;
+	static final int Z80_PSG_READ = 7;
+	static final int Z80_BANK_WRITE = 8;
+	static final int Z80_BANK_MAPPING_READ = 9;
+	static final int Z80_NOT_MAPPED = 10;
+	static final int Z80_DD_NOT_IMPLEMENTED = 11;
+	static final int Z80_FD_NOT_IMPLEMENTED = 12;
+	static final int VDP_WRITE_IN_READ_MODE = 13;
+
+	static final String[] NAMES = { "not mapped", "write to rom", "write not supported", "io not implemented",
+			"unknown opcode", "z80 instruction", "z80 psg write", "z80 psg read", "z80 write to 68k",
+			"z80 bank mapping read", "z80 write not mapped", "z80 dd opcode run without the prefix",
+			"z80 fd opcode run without the prefix", "vdp data write in read mode" };
+
+	static final int M68000 = 0;
+	static final int Z80 = 1;
+
+	final Genefusto emu;
+	final long[] ring = new long[SIZE * WORDS];
+	//	records since power on, the next one goes to count % SIZE
+	long count;
+
+	final long[] kindCount = new long[NAMES.length];
+	final long[] kindReported = new long[NAMES.length];
+	final long[] kindLast = new long[NAMES.length];
+	int frames;
+
+	Trace(Genefusto emu) {
+		this.emu = emu;
+	}
+
+	//	opcode -1 if not known, an access in the middle of an instruction
+	void record(int kind, int cpu, long pc, int opcode, long address, long value) {
+		int i = (int) (count & (SIZE - 1)) * WORDS;
+		ring[i] = emu.vdp.lines;
+		ring[i + 1] = ((long) kind << 56) | ((long) cpu << 49) | (opcode < 0 ? 0 : (1L << 48) | ((long) (opcode & 0xFFFF) << 32))
+				| (pc & 0xFFFF_FFFFL);
+		ring[i + 2] = address;
+		ring[i + 3] = value;
+		kindLast[kind] = count;
+		count++;
+		if (kindCount[kind]++ == 0) {
+			System.out.println(decode(count - 1));
+			kindReported[kind] = 1;
+		}
+	}
+
+	void endFrame() {
+		if (++frames < SUMMARY_FRAMES) {
+			return;
+		}
+		frames = 0;
+		for (int kind = 0; kind < NAMES.length; kind++) {
+			long n = kindCount[kind] - kindReported[kind];
+			if (n > 0) {
+				kindReported[kind] = kindCount[kind];
+				System.out.println(n + " x " + NAMES[kind] + " in the last " + SUMMARY_FRAMES + " frames, last: " + decode(kindLast[kind]));
+			}
+		}
+	}
+
+	String decode(long record) {
+		if (count - record > SIZE) {
+			return "(overwritten)";
+		}
+		int i = (int) (record & (SIZE - 1)) * WORDS;
+		long header = ring[i + 1];
+		int kind = (int) (header >>> 56);
+		boolean z80 = ((header >> 49) & 0x7F) == Z80;
+		long pc = header & 0xFFFF_FFFFL;
+		long address = ring[i + 2];
+		long value = ring[i + 3];
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("line ").append(ring[i]).append(z80 ? " Z80 " : " 68000 ").append("pc ").append(hex(pc, z80 ? 4 : 6));
+		if ((header & (1L << 48)) != 0) {
+			sb.append(" op ").append(hex((header >> 32) & 0xFFFF, z80 ? 2 : 4));
+		}
+		sb.append(' ').append(NAMES[kind]);
+		if (kind == Z80_INSTRUCTION) {
+			sb.append(" af ").append(hex(value >>> 48, 4)).append(" bc ").append(hex((value >> 32) & 0xFFFF, 4))
+				.append(" de ").append(hex((value >> 16) & 0xFFFF, 4)).append(" hl ").append(hex(value & 0xFFFF, 4))
+				.append(" ix ").append(hex((address >> 16) & 0xFFFF, 4)).append(" iy ").append(hex((address >> 32) & 0xFFFF, 4))
+				.append(" sp ").append(hex(address & 0xFFFF, 4));
+		} else if (kind != UNKNOWN_OPCODE && kind != Z80_DD_NOT_IMPLEMENTED && kind != Z80_FD_NOT_IMPLEMENTED) {
+			sb.append(' ').append(hex(address, z80 ? 4 : 6)).append(" = ").append(hex(value, 2));
+		}
+		//	the instruction as the ROM has it now, RAM could have changed since
+		if (!z80 && kind != UNKNOWN_OPCODE && pc <= 0x3FFFFF) {
+			sb.append("  ; ").append(emu.disassembler.disassemble(pc));
+		}
+		return sb.toString();
+	}
+
+	void dump(PrintStream out) {
+		long first = Math.max(0, count - SIZE);
+		out.println("Trace: " + (count - first) + " of " + count + " events");
+		for (long r = first; r < count; r++) {
+			out.println(decode(r));
+		}
+		out.flush();
+	}
+
+	void dump(File file) {
+		try (PrintStream out = new PrintStream(file)) {
+			dump(out);
+		} catch (FileNotFoundException e) {
+			System.out.println("Can't write the trace: " + e.getMessage());
+		}
+	}
+
+	static String hex(long value, int digits) {
+		String s = Long.toHexString(value).toUpperCase();
+		while (s.length() < digits) {
+			s = "0" + s;
+		}
+		return s;
+	}
+
+}
@@ -1,5 +1,8 @@
 package gen;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 //	info de quirks a implementar:
 //	https://emudocs.org/Genesis/Graphics/genvdp.txt
 
@@ -8,6 +11,11 @@ public class VDP {
 	int[] vram  = new int[0x10000];
 	int[] cram  = new int[0x80];		//	The CRAM contains 128 bytes, addresses 0 to 7F
 	int[] vsram = new int[0x50];		//	The VSRAM contains 80 bytes, addresses 0 to 4F
+	
+	//	VRAM of a forked machine, still the one of the parent. Copied on the first write.
+	boolean vramShared;
+	//	1KB pages written since StateHash last looked at them
+	boolean[] vramDirty = new boolean[0x40];
 
 	enum VramMode {
 		vramRead, cramRead, vsramRead , vramWrite, cramWrite, vsramWrite;
@@ -145,6 +153,39 @@ public class VDP {
 	
 	int line;
 	
+	//	set at VINT, the emulation loop takes it as the end of the frame
+	boolean frameDone;
+	
+	//	false for the frames nobody sees (run ahead), the lines are not drawn. Drawing has no effect
+	//	on what the game can read.
+	boolean render = true;
+	
+	//	emulated time since power on, in the same units run() receives. Everything that games poll
+	//	(HV counter, Z80 bus grant) is derived from it so runs are reproducible.
+	long cycleCounter;
+	
+	//	run() ends the line once it passes 982, with 13 per step that is 76 steps
+	static final int LINE_CYCLES = 988;
+	
+	static final int NTSC_LINES = 262;
+	static final int PAL_LINES = 313;
+	
+	//	https://gendev.spritesmind.net/forum/viewtopic.php?t=768
+	//	H counter, one value every 2 pixels: H32 00-93 E9-FF, H40 00-B6 E4-FF
+	static final int[] H32_COUNTER = hCounterTable(0x93, 0xE9);
+	static final int[] H40_COUNTER = hCounterTable(0xB6, 0xE4);
+	
+	//	V counter jumps back once the visible area and the bottom border are done:
+	//	NTSC V28 00-EA E5-FF, PAL V28 00-102 1CA-1FF, PAL V30 00-10A 1D2-1FF
+	//	NTSC V30 is not a valid mode, it counts 00-FF 00-05
+	static final int[] NTSC_V28_COUNTER = vCounterTable(NTSC_LINES, 0xEA, 0x1E5);
+	static final int[] NTSC_V30_COUNTER = vCounterTable(NTSC_LINES, 0xFF, 0x100);
+	static final int[] PAL_V28_COUNTER = vCounterTable(PAL_LINES, 0x102, 0x1CA);
+	static final int[] PAL_V30_COUNTER = vCounterTable(PAL_LINES, 0x10A, 0x1D2);
+	
+	//	HV value frozen while M2 (reg 0 bit 1) is set
+	int hvLatch;
+	
 	int[][][] colorsCache = new int[8][8][8];
 	
 	Bus bus;
@@ -155,6 +196,64 @@ public class VDP {
 		initColorsCache();
 	}
 	
+	static int[] hCounterTable(int lastActive, int jumpTo) {
+		int[] table = new int[(lastActive + 1) + (0x100 - jumpTo)];
+		int i = 0;
+		for (int h = 0; h <= lastActive; h++) {
+			table[i++] = h;
+		}
+		for (int h = jumpTo; h <= 0xFF; h++) {
+			table[i++] = h;
+		}
+		return table;
+	}
+	
+	static int[] vCounterTable(int lines, int lastBeforeJump, int jumpTo) {
+		int[] table = new int[lines];
+		int v = 0;
+		for (int i = 0; i < lines; i++) {
+			table[i] = v & 0xFF;	//	the port only shows the low 8 bits (non interlaced)
+			v = (v == lastBeforeJump) ? jumpTo : v + 1;
+		}
+		return table;
+	}
+	
+	//	level 6 while VINT is enabled and not acknowledged, level 4 the same for HINT
+	void updateInterruptLines() {
+		bus.interrupts.set(InterruptController.VINT_LEVEL, ie0 && vip == 1);
+		bus.interrupts.set(InterruptController.HINT_LEVEL, ie1 && bus.hintPending);
+	}
+	
+	int linesPerFrame() {
+		return pal == 1 ? PAL_LINES : NTSC_LINES;
+	}
+	
+	//	C00008, V counter in the high byte, H counter in the low one
+	int readHVCounter() {
+		if (m2) {
+			return hvLatch;
+		}
+		return currentHVCounter();
+	}
+	
+	int currentHVCounter() {
+		boolean h40 = bitTest(registers[0xC], 7) && bitTest(registers[0xC], 0);
+		int[] hTable = h40 ? H40_COUNTER : H32_COUNTER;
+		
+		int[] vTable;
+		if (pal == 1) {
+			vTable = m3 ? PAL_V30_COUNTER : PAL_V28_COUNTER;
+		} else {
+			vTable = m3 ? NTSC_V30_COUNTER : NTSC_V28_COUNTER;
+		}
+		
+		int position = Math.min(totalCycles, LINE_CYCLES - 1);
+		int h = hTable[(position * hTable.length) / LINE_CYCLES];
+		int v = vTable[line % vTable.length];
+		
+		return (v << 8) | h;
+	}
+	
 	int readControl() {
 //	TODO When you do a 16-bit read of the status register, the upper 6 bits are not set by the VDP. The value assigned to these bits will be whatever value these bits were set to from the last read the M68000 performed. Writes from the M68000 don't affect these bits, only reads.
 		int control = (
@@ -319,6 +418,9 @@ public class VDP {
 		registers[reg] = dataControl;
 		
 		if (reg == 0x00) {
+			if (!m2 && ((data >> 1) & 1) == 1) {	//	latch the HV counter when M2 gets set
+				hvLatch = currentHVCounter();
+			}
 			vsi = 	((data >> 7) & 1) == 1;
 			hsi = 	((data >> 6) & 1) == 1;
 			lcb = 	((data >> 5) & 1) == 1;
@@ -328,6 +430,8 @@ public class VDP {
 			m2 = 	((data >> 1) & 1) == 1;
 			es = 	((data >> 0) & 1) == 1;
 			
+			updateInterruptLines();
+			
 		} else if (reg == 0x01) {
 			if ((disp) && ((data & 0x40) == 0)) {	// el display estaba prendido pero se apago
 				vb = 1;
@@ -343,6 +447,8 @@ public class VDP {
 			m5 = 	((data >> 2) & 1) == 1;
 			sz = 	((data >> 1) & 1) == 1;
 			mag = 	((data >> 0) & 1) == 1;
+			
+			updateInterruptLines();
 		
 		} else if (reg == 0x0F) {
 			autoIncrementData = (int) (data & 0xFF);
@@ -367,6 +473,10 @@ public class VDP {
 
 	boolean dmaRecien = false;
 	
+	//	since power on, for Throughput
+	long lines;
+	long dmaBytes;
+	
 	public void dmaFill() {
 		if (dma == 1) {
 			int dmaLength = (dmaLengthCounterHi << 8) | dmaLengthCounterLo;
@@ -420,10 +530,13 @@ public class VDP {
 			} else {
 				throw new RuntimeException("SOLO ESCRIBE EN VRAM !! pasa este caso ?");
 			}
+			dmaBytes++;
 			
 			dmaLength = (dmaLength - 1);	// idem FIXME no es fijo
 			if (dmaLength <= 0) {
 				dma = 0;
+				//	the status changes, an iteration that read it before is not the same as the next
+				bus.sideEffects++;
 				return;
 			}
 			
@@ -449,6 +562,14 @@ public class VDP {
 		}
 	}
 
+	//	JFR event, only with telemetry
+	private void dmaStarted(long source) {
+		Telemetry telemetry = bus.emu.telemetry;
+		if (telemetry != null) {
+			telemetry.dma(dmaModo.name(), (dmaLengthCounterHi << 8) | dmaLengthCounterLo, source);
+		}
+	}
+	
 	boolean vramWrite2 = false;
 	boolean cramWrite2 = false;
 	boolean vsramWrite2 = false;
@@ -482,6 +603,7 @@ public class VDP {
 				if (m1) {
 					dma = 1;
 					vramFill = false;
+					dmaStarted(0);
 					
 					dataPort = (data << 8) | data;
 					
@@ -498,7 +620,7 @@ public class VDP {
 			} else if (vramMode == VramMode.vsramWrite) {
 				throw new RuntimeException("NOT IMPL !");
 			} else {
-				System.out.println("Write pero mando read, Modo video: " + vramMode.toString());
+				bus.emu.trace.record(Trace.VDP_WRITE_IN_READ_MODE, Trace.M68000, bus.cpu.PC, -1, addressPort, data);
 //				throw new RuntimeException("NOT IMPL !");
 			}
 			
@@ -516,6 +638,7 @@ public class VDP {
 				if (m1) {
 					dma = 1;
 					vramFill = false;
+					dmaStarted(0);
 					
 					dataPort = data;
 					
@@ -534,7 +657,7 @@ public class VDP {
 				vsramWriteWord(data);
 				
 			} else {
-				System.out.println("Write pero mando read, Modo video: " + vramMode.toString());
+				bus.emu.trace.record(Trace.VDP_WRITE_IN_READ_MODE, Trace.M68000, bus.cpu.PC, -1, addressPort, data);
 //				throw new RuntimeException("NOT IMPL !");
 			}
 			
@@ -543,6 +666,7 @@ public class VDP {
 				if (m1) {
 					dma = 1;
 					vramFill = false;
+					dmaStarted(0);
 					
 					dataPort = data;
 					
@@ -564,7 +688,7 @@ public class VDP {
 				vsramWriteWord(data & 0xFFFF);
 				
 			} else {
-				System.out.println("Write pero mando read, Modo video: " + vramMode.toString());
+				bus.emu.trace.record(Trace.VDP_WRITE_IN_READ_MODE, Trace.M68000, bus.cpu.PC, -1, addressPort, data);
 //				throw new RuntimeException("NOT IMPL !");
 			}
 		}
@@ -610,6 +734,7 @@ public class VDP {
 		long sourceAddr = ((registers[0x17] & 0x7F) << 16) | (registers[0x16] << 8) | (registers[0x15]);
 		long sourceTrue = sourceAddr << 1;	// duplica, trabaja asi
 		int destAddr = (int) (((commandWord & 0x3) << 14) | ((commandWord & 0x3FFF_0000L) >> 16));
+		dmaStarted(sourceTrue);
 		
 		int index, data;
 		while (dmaLength > 0) {
@@ -654,6 +779,7 @@ public class VDP {
 			
 			sourceTrue += 2;
 			destAddr += registers[15];
+			dmaBytes += 2;
 			
 			dmaLength--;
 		}
@@ -699,7 +825,12 @@ public class VDP {
 	}
 
 	private void writeVramByte(int address, int data) {
+		if (vramShared) {
+			vram = vram.clone();
+			vramShared = false;
+		}
 		vram[address] = data;
+		vramDirty[address >> 10] = true;
 	}
 	
 	int autoIncrementTotal;
@@ -928,14 +1059,28 @@ public class VDP {
 	public int[][] windowIndex = new int[320][256];
 	public boolean[][] windowPrio = new boolean[320][256];
 	
+	//	steps of 13 cycles until HBlank starts, the line ends or a DMA fill ends, where the status and
+	//	the interrupts change
+	int stepsToNextEvent() {
+		int event = totalCycles < 800 ? 800 : 983;
+		int steps = Math.max(1, (event - totalCycles + 12) / 13);
+		if (dma == 1) {
+			//	dmaFill() runs twice a step, a byte each, the DMA bit goes down with the last one
+			int length = (dmaLengthCounterHi << 8) | dmaLengthCounterLo;
+			steps = Math.min(steps, Math.max(1, (length + 1) / 2));
+		}
+		return steps;
+	}
+	
 	public void run(int cycles) {
+		cycleCounter += cycles;
 		totalCycles += cycles;
 		if (totalCycles < 800) {
 			hb = 0;
 		} else if (totalCycles >= 800 && totalCycles <= 982) {
 			hb = 1;
 		} else if (totalCycles > 982) {
-			if ((registers[1] & 0x40) == 0x40) {
+			if (render && (registers[1] & 0x40) == 0x40) {
 				if (line < 0xE0) {
 					spritesLine = 0;
 					
@@ -945,6 +1090,8 @@ public class VDP {
 					renderWindow();
 					renderSprites();
 				}
+			} else if ((registers[1] & 0x40) == 0x40 && line < 0xE0) {
+				countSprites();
 			}
 			
 			if (line < 0xE0) {
@@ -952,13 +1099,19 @@ public class VDP {
 				if (bus.hLinesPassed == -1) {
 					bus.hintPending = true;
 					bus.hLinesPassed = registers[0xA];
+					updateInterruptLines();
 				}
 			}
 			
 			line++;
+			lines++;
 			totalCycles = 0;
+			
+			if (line == 0xE1) {
+				bus.interrupts.setZ80Irq(false);
+			}
 		}
-		if (line > 0xFF) {
+		if (line >= linesPerFrame()) {
 			line = 0;
 			evaluateSprites();
 			
@@ -967,10 +1120,14 @@ public class VDP {
 		if (line == 0xE0 && totalCycles == 0) {
 			vip = 1;
 			vb = 1;
+			frameDone = true;
+			
+			updateInterruptLines();
+			bus.interrupts.setZ80Irq(true);
 			
 			spritesFrame = 0;
 			
-			if ((registers[1] & 0x40) == 0x40) {
+			if (render && (registers[1] & 0x40) == 0x40) {
 				compaginateImage();
 				
 				bus.emu.renderScreen();
@@ -987,7 +1144,7 @@ public class VDP {
 	int[][] spritesPerLine = new int[256][80];
 	int[] lastIndexes = new int[256];
 	
-	private void evaluateSprites() {
+	void evaluateSprites() {
 		int spriteTableLoc = registers[0x5] & 0x7F;	//	AT16 is only valid if 128 KB mode is enabled, and allows for rebasing the Sprite Attribute Table to the second 64 KB of VRAM.
 		int spriteTable = spriteTableLoc * 0x200;
 		
@@ -1043,7 +1200,18 @@ public class VDP {
 		}
 	}
 	
-	private void renderSprites() {
+	//	a line that is not drawn still moves the counters of renderSprites, they are in the state
+	void countSprites() {
+		int[] spritesInLine = spritesPerLine[line];
+		int n = 0;
+		while (n < 20 && spritesInLine[n] != -1) {
+			n++;
+		}
+		spritesLine = n;
+		spritesFrame += n;
+	}
+	
+	void renderSprites() {
 		int spriteTableLoc = registers[0x5] & 0x7F;	//	AT16 is only valid if 128 KB mode is enabled, and allows for rebasing the Sprite Attribute Table to the second 64 KB of VRAM.
 		int spriteTable = spriteTableLoc * 0x200;
 		
@@ -1223,6 +1391,15 @@ public class VDP {
 		}
 	}
 
+	//	size of the picture in screenData, H32 or H40. Only 224 lines are drawn, also in PAL.
+	int screenWidth() {
+		return bitTest(registers[0xC], 7) && bitTest(registers[0xC], 0) ? 320 : 256;
+	}
+	
+	int screenHeight() {
+		return 224;
+	}
+	
 	//The VDP has a complex system of priorities that can be used to achieve several complex effects. The priority order goes like follows, with the least priority being the first item in the list:
 	//
 	//Backdrop Colour
@@ -1234,7 +1411,7 @@ public class VDP {
 	//Plane A with priority bit set
 	//Sprites with priority bit set
 	//Window Plane with priority bit set
-	private void compaginateImage() {
+	void compaginateImage() {
 		int regC = registers[0xC];
 		boolean rs0 = bitTest(regC, 7);
 		boolean rs1 = bitTest(regC, 0);
@@ -1308,7 +1485,7 @@ public class VDP {
 		}
 	}
 	
-	private void renderBack() {
+	void renderBack() {
 		int line = this.line;
 		
 		int regC = registers[0xC];
@@ -1347,7 +1524,7 @@ public class VDP {
 //x	SA16	SA15	SA14	SA13	x	x	x
 //	SA15-SA13 defines the upper three bits of the VRAM location of Plane A's nametable. This value is effectively the address divided by $400; however, the low three bits are ignored, so the Plane A nametable has to be located at a VRAM address that's a multiple of $2000. For example, if the Plane A nametable was to be located at $C000 in VRAM, it would be divided by $400, which results in $30, the proper value for this register.
 //	SA16 is only valid if 128 KB mode is enabled, and allows for rebasing the Plane A nametable to the second 64 KB of VRAM.
-	private void renderPlaneA() {
+	void renderPlaneA() {
 		int nameTableLocation = registers[2] & 0x38;	// bit 6 para modo extendido de vram, no lo emulo
 		nameTableLocation *= 0x400;
 		
@@ -1622,7 +1799,7 @@ public class VDP {
 //	x	x	x	x	SB16	SB15	SB14	SB13
 //	SB15-SB13 defines the upper three bits of the VRAM location of Plane B's nametable. This value is effectively the address divided by $2000, meaning that the Plane B nametable has to be located at a VRAM address that's a multiple of $2000. For example, if the Plane A nametable was to be located at $E000 in VRAM, it would be divided by $2000, which results in $07, the proper value for this register.
 //	SB16 is only valid if 128 KB mode is enabled, and allows for rebasing the Plane B nametable to the second 64 KB of VRAM.
-	private void renderPlaneB() {
+	void renderPlaneB() {
 		int nameTableLocation = (registers[4] & 0x7) << 3;	// bit 3 para modo extendido de vram, no lo emulo
 		nameTableLocation *= 0x400;
 		
@@ -1896,7 +2073,7 @@ public class VDP {
 	// address that's a multiple of $800. For example, if the Window nametable
 	// was to be located at $F000 in VRAM, it would be divided by $400, which
 	// results in $3C, the proper value for this register.
-	private void renderWindow() {
+	void renderWindow() {
 		int reg12 = registers[0x12];
 		int windowVert = reg12 & 0x1F;
 		boolean down = ((reg12 & 0x80) == 0x80) ? true : false;
@@ -2226,4 +2403,205 @@ public class VDP {
 //		nextFIFOReadEntry = index;
 //		nextFIFOWriteEntry = index;
 	}
+	
+	void saveState(ByteBuffer b) {
+		SaveState.putBytes(b, cram);
+		SaveState.putBytes(b, vsram);
+		SaveState.putInts(b, registers);
+		b.putInt(addr);
+		
+		SaveState.putInts(b, fifoCode);
+		SaveState.putInts(b, fifoAddress);
+		SaveState.putInts(b, fifoData);
+		b.putInt(currentFIFOReadEntry);
+		b.putInt(currentFIFOWriteEntry);
+		b.putInt(nextFIFOReadEntry);
+		b.putInt(nextFIFOWriteEntry);
+		
+		SaveState.putBoolean(b, controlSecond);
+		SaveState.putBoolean(b, addressSecondWrite);
+		b.putLong(firstWrite);
+		b.putInt(dataPort);
+		b.putInt(addressPort);
+		b.putInt(firstData);
+		b.putInt(vramMode != null ? vramMode.ordinal() : -1);
+		SaveState.putBoolean(b, vramWrite2);
+		SaveState.putBoolean(b, cramWrite2);
+		SaveState.putBoolean(b, vsramWrite2);
+		b.putInt(vramWriteData);
+		b.putInt(cramWriteData);
+		b.putInt(vsramWriteData);
+		
+		//	reg 0 and 1 bits
+		SaveState.putBoolean(b, vsi);
+		SaveState.putBoolean(b, hsi);
+		SaveState.putBoolean(b, lcb);
+		SaveState.putBoolean(b, ie1);
+		SaveState.putBoolean(b, ssHsm);
+		SaveState.putBoolean(b, ps);
+		SaveState.putBoolean(b, m2);
+		SaveState.putBoolean(b, es);
+		SaveState.putBoolean(b, evram);
+		SaveState.putBoolean(b, disp);
+		SaveState.putBoolean(b, ie0);
+		SaveState.putBoolean(b, m1);
+		SaveState.putBoolean(b, m3);
+		SaveState.putBoolean(b, m5);
+		SaveState.putBoolean(b, sz);
+		SaveState.putBoolean(b, mag);
+		b.putInt(autoIncrementData);
+		b.putInt(autoIncrementTotal);
+		
+		//	DMA
+		b.putInt(dmaLengthCounterLo);
+		b.putInt(dmaLengthCounterHi);
+		b.putInt(dmaSourceAddressLow);
+		b.putInt(dmaSourceAddressMid);
+		b.putInt(dmaSourceAddressHi);
+		b.putInt(dmaMode);
+		b.putInt(dmaModo != null ? dmaModo.ordinal() : -1);
+		SaveState.putBoolean(b, vramFill);
+		SaveState.putBoolean(b, memToVram);
+		SaveState.putBoolean(b, dmaRecien);
+		SaveState.putBoolean(b, dmaRequested);
+		
+		//	status
+		b.putInt(empty);
+		b.putInt(full);
+		b.putInt(vip);
+		b.putInt(sovr);
+		b.putInt(scol);
+		b.putInt(odd);
+		b.putInt(vb);
+		b.putInt(hb);
+		b.putInt(dma);
+		b.putInt(pal);
+		b.putLong(all);
+		
+		//	timing
+		b.putInt(line);
+		b.putInt(totalCycles);
+		b.putInt(scanline);
+		b.putLong(cycleCounter);
+		b.putInt(hvLatch);
+		SaveState.putBoolean(b, frameDone);
+		b.putInt(spritesFrame);
+		b.putInt(spritesLine);
+	}
+	
+	void loadState(ByteBuffer b) {
+		SaveState.getBytes(b, cram);
+		SaveState.getBytes(b, vsram);
+		SaveState.getInts(b, registers);
+		addr = b.getInt();
+		
+		SaveState.getInts(b, fifoCode);
+		SaveState.getInts(b, fifoAddress);
+		SaveState.getInts(b, fifoData);
+		currentFIFOReadEntry = b.getInt();
+		currentFIFOWriteEntry = b.getInt();
+		nextFIFOReadEntry = b.getInt();
+		nextFIFOWriteEntry = b.getInt();
+		
+		controlSecond = SaveState.getBoolean(b);
+		addressSecondWrite = SaveState.getBoolean(b);
+		firstWrite = b.getLong();
+		dataPort = b.getInt();
+		addressPort = b.getInt();
+		firstData = b.getInt();
+		int mode = b.getInt();
+		vramMode = mode >= 0 ? VramMode.values()[mode] : null;
+		vramWrite2 = SaveState.getBoolean(b);
+		cramWrite2 = SaveState.getBoolean(b);
+		vsramWrite2 = SaveState.getBoolean(b);
+		vramWriteData = b.getInt();
+		cramWriteData = b.getInt();
+		vsramWriteData = b.getInt();
+		
+		vsi = SaveState.getBoolean(b);
+		hsi = SaveState.getBoolean(b);
+		lcb = SaveState.getBoolean(b);
+		ie1 = SaveState.getBoolean(b);
+		ssHsm = SaveState.getBoolean(b);
+		ps = SaveState.getBoolean(b);
+		m2 = SaveState.getBoolean(b);
+		es = SaveState.getBoolean(b);
+		evram = SaveState.getBoolean(b);
+		disp = SaveState.getBoolean(b);
+		ie0 = SaveState.getBoolean(b);
+		m1 = SaveState.getBoolean(b);
+		m3 = SaveState.getBoolean(b);
+		m5 = SaveState.getBoolean(b);
+		sz = SaveState.getBoolean(b);
+		mag = SaveState.getBoolean(b);
+		autoIncrementData = b.getInt();
+		autoIncrementTotal = b.getInt();
+		
+		dmaLengthCounterLo = b.getInt();
+		dmaLengthCounterHi = b.getInt();
+		dmaSourceAddressLow = b.getInt();
+		dmaSourceAddressMid = b.getInt();
+		dmaSourceAddressHi = b.getInt();
+		dmaMode = b.getInt();
+		int modo = b.getInt();
+		dmaModo = modo >= 0 ? DmaMode.values()[modo] : null;
+		vramFill = SaveState.getBoolean(b);
+		memToVram = SaveState.getBoolean(b);
+		dmaRecien = SaveState.getBoolean(b);
+		dmaRequested = SaveState.getBoolean(b);
+		
+		empty = b.getInt();
+		full = b.getInt();
+		vip = b.getInt();
+		sovr = b.getInt();
+		scol = b.getInt();
+		odd = b.getInt();
+		vb = b.getInt();
+		hb = b.getInt();
+		dma = b.getInt();
+		pal = b.getInt();
+		all = b.getLong();
+		
+		line = b.getInt();
+		totalCycles = b.getInt();
+		scanline = b.getInt();
+		cycleCounter = b.getLong();
+		hvLatch = b.getInt();
+		frameDone = SaveState.getBoolean(b);
+		spritesFrame = b.getInt();
+		spritesLine = b.getInt();
+	}
+	
+	void saveVram(ByteBuffer b) {
+		SaveState.putBytes(b, vram);
+	}
+	
+	void loadVram(ByteBuffer b) {
+		if (vramShared) {
+			vram = new int[vram.length];
+			vramShared = false;
+		}
+		SaveState.getBytes(b, vram);
+		Arrays.fill(vramDirty, true);
+	}
+	
+	//	VRAM is shared whole, not in pages like Memory.ramPages: the renderer reads vram[] directly
+	//	in every loop and a page lookup there costs more than it saves. The price is a 64KB copy
+	//	(about 45us, a fork itself is about 25us) on the first VRAM write of the fork and another
+	//	one on the next of the parent, once per fork at most, little next to running a frame on it.
+	void share(VDP parent) {
+		vram = parent.vram;
+		vramShared = true;
+		parent.vramShared = true;
+		Arrays.fill(vramDirty, true);
+	}
+	
+	//	after a load, what is not in the state
+	void restored() {
+		//	the sprite table of the frame is built from VRAM at line 0, in the middle of the frame
+		//	it has to be built now
+		if (line < 0xE0) {
+			evaluateSprites();
+		}
+	}
 }
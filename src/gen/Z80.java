@@ -1,5 +1,7 @@
 package gen;
 
+import java.nio.ByteBuffer;
+
 //Start	End	Description
 //0000h	1FFFh	Z80 RAM
 //2000h	3FFFh	Reserved
@@ -86,7 +88,6 @@ public class Z80 {
 		}
 	}
 	
-	StringBuilder lineLog = new StringBuilder();
 	boolean toPrint = false;
 	boolean disableInterruptsNow;
 	boolean halted;
@@ -97,26 +98,29 @@ public class Z80 {
 	boolean busRequested;
 	boolean reset;
 	
+	//	INT pin, asserted by the VDP at VBlank
+	boolean irqLine;
+	
 	boolean stopZ80 = true;
 	
 	int executeInstruction(int opcode) {
 		int tmp, addr, lo, hi;
 		int cycles = 0;
 		
+		//	EI takes effect after the instruction that follows it
+		if (enableInterruptsNextInstr) {
+			enableInterrupts = true;
+			enableInterruptsNextInstr = false;
+		}
+		
 		if (PC - 1 != 0) {
 //			System.out.println("Z80: " + Integer.toHexString(PC - 1));
 		}
 		
-		String fullOpcode = hex(opcode);
+        //	-Dgenefusto.trace.z80=true, every instruction to the trace ring
         if (toPrint) {
-            lineLog.setLength(0);
-            lineLog.append("\nAF: ").append(hex(A)).append(hex(F)).append(" - BC: ").append(hex(B))
-                .append(hex(C)).append(" - DE: ").append(hex(D)).append(hex(E)).append(" - HL: ")
-                .append(hex(H)).append(hex(L)).append(" - IX:").append(hex4(IX)).append(" - IY:").append(hex4(IY)).append(" - R: ").append(hex(R)).append(" - bank68k: " + hex(romBank68kSerial))
-                .append("\npc: ").append(hex4(PC - 1)).append(" - sp: ").append(hex4(SP)).append(" - opcode: ").append(fullOpcode);
-                
-                
-            System.out.println(lineLog.toString());
+        	bus.emu.trace.record(Trace.Z80_INSTRUCTION, Trace.Z80, PC - 1, opcode, ((long) IY << 32) | ((long) IX << 16) | SP,
+        			((long) A << 56) | ((long) F << 48) | ((long) B << 40) | ((long) C << 32) | ((long) D << 24) | (E << 16) | (H << 8) | L);
         }
         
 //		for (int i = 0; i < lastInstr.length - 1; i++) {
@@ -3277,7 +3281,7 @@ public class Z80 {
 			break;
 			
 		default:
-			System.out.println("OJO QUE PUEDE FALTAR IMPLEMENTAR UNA INSTR ACA ! " + hex(extOpcode));
+			bus.emu.trace.record(Trace.Z80_DD_NOT_IMPLEMENTED, Trace.Z80, PC, extOpcode, PC, extOpcode);
 			cycles = executeInstruction(extOpcode);
 			
 			PC = (PC + 1) & 0xFFFF;
@@ -4222,7 +4226,7 @@ public class Z80 {
 			break;
 			
 		default:
-			System.out.println("OJO QUE PUEDE FALTAR IMPLEMENTAR UNA INSTR ACA !" + hex(extOpcode));
+			bus.emu.trace.record(Trace.Z80_FD_NOT_IMPLEMENTED, Trace.Z80, PC, extOpcode, PC, extOpcode);
 			cycles = executeInstruction(extOpcode);
 			
 			PC = (PC + 1) & 0xFFFF;
@@ -5561,6 +5565,29 @@ public class Z80 {
         }
     }
     
+    //	Interrupt acknowledge. Nothing drives the data bus on the Genesis, it reads FFh:
+    //	IM 0 executes RST 38h, IM 1 is RST 38h, IM 2 takes the vector from (I << 8) | FFh
+    void interrupt() {
+    	if (!enableInterrupts) {
+    		return;
+    	}
+    	enableInterrupts = false;
+    	irqLine = false;
+    	
+    	if (halted) {
+    		halted = false;
+    	}
+    	
+    	if (interruptMode == 2) {
+    		int vector = (I << 8) | 0xFF;
+    		int lo = readMemory(vector);
+    		int hi = readMemory((vector + 1) & 0xFFFF);
+    		cpuRestart((hi << 8) | lo);
+    	} else {
+    		cpuRestart(0x38);
+    	}
+    }
+    
     void cpuRestart(int address) {
         int hi = PC >> 8;
         int lo = PC & 0xFF;
@@ -5703,6 +5730,7 @@ public class Z80 {
     void writeMemory(int address, int data) {
     	if (address < 0x2000) {
     		memory[address] = data;
+    		bus.z80RamWrites++;
 		} else if (address >= 0x2000 && address <= 0x3FFF) {
 			//	RESERVED
 		} else if (address == 0x4000) {		//	YM2612 A0
@@ -5717,13 +5745,13 @@ public class Z80 {
 			romBanking(data);
 			
 		} else if (address == 0x7F11) {		//	SN76489 PSG
-			System.out.println("PSG write Z80");
+			bus.emu.trace.record(Trace.Z80_PSG_WRITE, Trace.Z80, PC, -1, address, data);
 		} else if (address >= 0x8000 && address <= 0xFFFF) {
-			System.out.println("ESCRITURA 68k!!!!!!");
+			bus.emu.trace.record(Trace.Z80_BANK_WRITE, Trace.Z80, PC, -1, address, data);
 			address = address - 0x8000 + (romBank68kSerial << 15);
 			bus.write(address, data, OperationSize.BYTE);
 		} else {
-			System.out.println("NOT - PC: " + Integer.toHexString(PC) + " - " + Integer.toHexString(address));
+			bus.emu.trace.record(Trace.Z80_NOT_MAPPED, Trace.Z80, PC, -1, address, data);
 //			throw new RuntimeException("NOT - PC: " + Integer.toHexString(PC) + " - " + Integer.toHexString(address));
 		}
 	}
@@ -5775,14 +5803,14 @@ public class Z80 {
 //			return YMD1;
 			return 0;
 		} else if (address == 0x6000) {		//	BankSwitching
-			System.out.println("Read bank mapping ?");
+			bus.emu.trace.record(Trace.Z80_BANK_MAPPING_READ, Trace.Z80, PC, -1, address, 0);
 			return 0xFF;	// confirmar que devuelve
 			
 		} else if (address >= 0x6001 && address <= 0x7F10) {	//	Reserved
 			return 0;
 			
 		} else if (address == 0x7F11) {		//	SN76489 PSG
-			System.out.println("PSG read Z80");
+			bus.emu.trace.record(Trace.Z80_PSG_READ, Trace.Z80, PC, -1, address, 0);
 			return 0;
 			
 		} else if (address >= 0x8000 && address <= 0xFFFF) {		//	8000h	FFFFh	M68k memory bank
@@ -6030,4 +6058,60 @@ public class Z80 {
 		SP = 0xFFFF;
 	}
 
+	void saveState(ByteBuffer b) {
+		SaveState.putBytes(b, memory);
+		
+		b.putInt(A); b.putInt(B); b.putInt(C); b.putInt(D);
+		b.putInt(E); b.putInt(F); b.putInt(H); b.putInt(L);
+		b.putInt(A2); b.putInt(B2); b.putInt(C2); b.putInt(D2);
+		b.putInt(E2); b.putInt(F2); b.putInt(H2); b.putInt(L2);
+		b.putInt(IX); b.putInt(IY); b.putInt(I); b.putInt(R);
+		b.putInt(PC); b.putInt(SP);
+		
+		SaveState.putBoolean(b, enableInterrupts);
+		SaveState.putBoolean(b, enableInterruptsNextInstr);
+		SaveState.putBoolean(b, disableInterruptsNow);
+		SaveState.putBoolean(b, FF1);
+		SaveState.putBoolean(b, FF2);
+		b.putInt(interruptMode);
+		SaveState.putBoolean(b, halted);
+		SaveState.putBoolean(b, irqLine);
+		
+		SaveState.putBoolean(b, busRequested);
+		SaveState.putBoolean(b, reset);
+		SaveState.putBoolean(b, stopZ80);
+		
+		b.putInt(YMA0); b.putInt(YMD0); b.putInt(YMA1); b.putInt(YMD1);
+		b.putInt(romBank68kSerial);
+		b.putInt(romBankPointer);
+	}
+	
+	void loadState(ByteBuffer b) {
+		SaveState.getBytes(b, memory);
+		
+		A = b.getInt(); B = b.getInt(); C = b.getInt(); D = b.getInt();
+		E = b.getInt(); F = b.getInt(); H = b.getInt(); L = b.getInt();
+		A2 = b.getInt(); B2 = b.getInt(); C2 = b.getInt(); D2 = b.getInt();
+		E2 = b.getInt(); F2 = b.getInt(); H2 = b.getInt(); L2 = b.getInt();
+		IX = b.getInt(); IY = b.getInt(); I = b.getInt(); R = b.getInt();
+		PC = b.getInt(); SP = b.getInt();
+		
+		enableInterrupts = SaveState.getBoolean(b);
+		enableInterruptsNextInstr = SaveState.getBoolean(b);
+		disableInterruptsNow = SaveState.getBoolean(b);
+		FF1 = SaveState.getBoolean(b);
+		FF2 = SaveState.getBoolean(b);
+		interruptMode = b.getInt();
+		halted = SaveState.getBoolean(b);
+		irqLine = SaveState.getBoolean(b);
+		
+		busRequested = SaveState.getBoolean(b);
+		reset = SaveState.getBoolean(b);
+		stopZ80 = SaveState.getBoolean(b);
+		
+		YMA0 = b.getInt(); YMD0 = b.getInt(); YMA1 = b.getInt(); YMD1 = b.getInt();
+		romBank68kSerial = b.getInt();
+		romBankPointer = b.getInt();
+	}
+	
 }
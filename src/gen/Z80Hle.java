@@ -0,0 +1,157 @@
+package gen;
+
+//	High level emulation of the Z80 sound driver, for headless runs where the audio doesn't matter.
+//	The Z80 code is not interpreted at all, only what the 68000 can observe of it is kept:
+//
+//	- the bus request at A11100 is granted at once.
+//	- the command bytes the 68000 leaves in Z80 RAM (the mailbox) are consumed when the bus is
+//	  given back, the same way the driver would clear them after reading them. Games that wait
+//	  for the driver to take a command (the byte goes back to 0) keep going.
+//	- drivers that publish a "ready" byte get it forced to the value the 68000 expects.
+//
+//	The driver is recognized by signature when it is let go from reset (A11200 = 0100h), which is
+//	when the upload through A00000-A01FFF is complete. An unknown driver still gets the generic
+//	treatment: any Z80 RAM byte the 68000 writes while the driver runs is taken as mailbox.
+public class Z80Hle {
+
+	static class Driver {
+		final String name;
+		//	-1 matches any byte
+		final int[] signature;
+		//	mailbox bytes, consumed (set to 0) when the 68000 returns the bus. Empty = learn them.
+		final int[] mailbox;
+		//	-1 if the driver has no ready flag
+		final int readyAddress;
+		final int readyValue;
+
+		Driver(String name, int[] signature, int[] mailbox, int readyAddress, int readyValue) {
+			this.name = name;
+			this.signature = signature;
+			this.mailbox = mailbox;
+			this.readyAddress = readyAddress;
+			this.readyValue = readyValue;
+		}
+	}
+
+	//	Signatures are the driver reading its own mailbox (LD A,(nn) = 3A lo hi, LD HL,nn = 21 lo hi),
+	//	which is stable across the games that share a driver, unlike the code around it. The first
+	//	that matches wins, the longer ones go first.
+	static final Driver[] DRIVERS = new Driver[] {
+		//	Sonic 2 SMPS Z80, the 68000 queues up to three sounds at 1C09h-1C0Bh and the driver
+		//	walks the queue from the first
+		new Driver("SMPS Z80", new int[] {0x21, 0x09, 0x1C, 0x7E}, new int[] {0x1C09, 0x1C0A, 0x1C0B}, -1, 0),
+		//	GEMS, the 68000 fills a FIFO of commands at 1B40h the driver empties. The bytes used
+		//	depend on how many commands are in flight, the mailbox is learned
+		new Driver("GEMS", new int[] {0x21, 0x40, 0x1B}, new int[0], -1, 0),
+		//	Sonic 1 DAC driver, the 68000 writes the sample number at 1FFFh
+		new Driver("SMPS DAC", new int[] {0x3A, 0xFF, 0x1F}, new int[] {0x1FFF}, -1, 0),
+	};
+
+	static final Driver GENERIC = new Driver("generic", new int[0], new int[0], -1, 0);
+
+	Z80 z80;
+
+	//	HLE requested for this run
+	boolean enabled;
+	//	a driver is loaded and the Z80 is not being interpreted
+	boolean active;
+
+	Driver driver;
+
+	//	learned mailbox, the Z80 RAM bytes written by the 68000 since the last bus release
+	boolean[] pending = new boolean[0x2000];
+	int[] pendingList = new int[0x2000];
+	int pendingCount;
+
+	Z80Hle(Z80 z80) {
+		this.z80 = z80;
+	}
+
+	//	the Z80 was let go from reset, the upload is done
+	void driverStarted() {
+		if (!enabled) {
+			return;
+		}
+		driver = detect(z80.memory);
+		active = true;
+		clearPending();
+
+		System.out.println("Z80 HLE: " + driver.name + " driver");
+	}
+
+	//	a state was loaded, the Z80 RAM is already the one of the state. Quiet, rewind and run-ahead
+	//	load states every frame
+	void restored(boolean active) {
+		this.active = active && enabled;
+		driver = this.active ? detect(z80.memory) : null;
+		clearPending();
+	}
+
+	//	the Z80 went back to reset, a new driver is about to be uploaded
+	void driverStopped() {
+		active = false;
+		driver = null;
+		clearPending();
+	}
+
+	Driver detect(int[] ram) {
+		for (Driver d : DRIVERS) {
+			if (find(ram, d.signature) >= 0) {
+				return d;
+			}
+		}
+		return GENERIC;
+	}
+
+	int find(int[] ram, int[] signature) {
+		int limit = ram.length - signature.length;
+		for (int i = 0; i <= limit; i++) {
+			int j = 0;
+			while (j < signature.length && (signature[j] == -1 || ram[i + j] == signature[j])) {
+				j++;
+			}
+			if (j == signature.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	//	68000 write to Z80 RAM
+	void write(int address) {
+		if (address < 0x2000 && !pending[address]) {
+			pending[address] = true;
+			pendingList[pendingCount++] = address;
+		}
+	}
+
+	//	68000 gave the bus back, this is where the driver would run and take the commands
+	void busReleased() {
+		if (driver.mailbox.length == 0) {
+			for (int i = 0; i < pendingCount; i++) {
+				z80.memory[pendingList[i]] = 0;
+			}
+		} else {
+			for (int address : driver.mailbox) {
+				z80.memory[address] = 0;
+			}
+		}
+		if (driver.readyAddress >= 0) {
+			z80.memory[driver.readyAddress] = driver.readyValue;
+		}
+		clearPending();
+	}
+
+	//	A11100 bit 0, 0 = the 68000 has the bus. Bus puts it at bit 8 too for a word read
+	int busStatus() {
+		return z80.busRequested ? 0 : 1;
+	}
+
+	private void clearPending() {
+		for (int i = 0; i < pendingCount; i++) {
+			pending[pendingList[i]] = false;
+		}
+		pendingCount = 0;
+	}
+
+}
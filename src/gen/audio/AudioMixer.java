@@ -0,0 +1,117 @@
+package gen.audio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+//	Mixer stage, runs on the emulation thread once per emulated frame.
+//	Asks every source for the samples of the frame, clamps the sum to 16 bits and
+//	pushes it in the ring for the output thread.
+//
+//	Dynamic rate control:
+//	https://github.com/libretro/docs/blob/master/archive/ratecontrol.pdf
+//	The frames are paced by video, so the amount of samples per frame is adjusted
+//	by at most MAX_DELTA to keep the ring half full. A 0.5% pitch change can't be heard,
+//	a ring that runs dry or overflows can.
+public class AudioMixer {
+
+	public static final int SAMPLE_RATE = 44100;
+
+	static final double MAX_DELTA = 0.005;
+
+	final List<SampleSource> sources = new ArrayList<>();
+	final AudioRing ring;
+	AudioOutput output;
+
+	double samplesPerFrame;
+	double fraction;
+	double ratio = 1.0;
+
+	int[] left;
+	int[] right;
+	short[] mixed;
+
+	long dropped;
+
+	public AudioMixer(int ringSamples) {
+		ring = new AudioRing(ringSamples);
+		setFrameRate(60);
+	}
+
+	public void setFrameRate(double fps) {
+		samplesPerFrame = SAMPLE_RATE / fps;
+
+		int max = (int) Math.ceil(samplesPerFrame * (1 + MAX_DELTA)) + 1;
+		left = new int[max];
+		right = new int[max];
+		mixed = new short[max * 2];
+	}
+
+	public void addSource(SampleSource source) {
+		sources.add(source);
+	}
+
+	public void start(AudioSink sink) throws IOException {
+		ring.clear();
+		output = new AudioOutput(ring, sink);
+		output.start(SAMPLE_RATE);
+	}
+
+	public void stop() {
+		if (output != null) {
+			output.stop();
+			output = null;
+		}
+	}
+
+	public void endFrame() {
+		if (output == null) {
+			return;
+		}
+
+		//	ring fuller than half -> less samples, emptier -> more
+		double fill = (double) ring.available() / ring.capacity();
+		ratio = 1.0 - (MAX_DELTA * ((fill * 2) - 1));
+
+		double wanted = (samplesPerFrame * ratio) + fraction;
+		int samples = (int) wanted;
+		fraction = wanted - samples;
+
+		for (int i = 0; i < samples; i++) {
+			left[i] = 0;
+			right[i] = 0;
+		}
+		for (int s = 0; s < sources.size(); s++) {
+			sources.get(s).render(left, right, samples);
+		}
+		for (int i = 0; i < samples; i++) {
+			mixed[i * 2] = clamp(left[i]);
+			mixed[(i * 2) + 1] = clamp(right[i]);
+		}
+
+		int written = ring.write(mixed, 0, samples * 2);
+		dropped += (samples * 2) - written;
+	}
+
+	private short clamp(int sample) {
+		if (sample > Short.MAX_VALUE) {
+			return Short.MAX_VALUE;
+		} else if (sample < Short.MIN_VALUE) {
+			return Short.MIN_VALUE;
+		}
+		return (short) sample;
+	}
+
+	public double getRatio() {
+		return ratio;
+	}
+
+	public long getDropped() {
+		return dropped;
+	}
+
+	public long getUnderruns() {
+		return output != null ? output.getUnderruns() : 0;
+	}
+
+}
@@ -0,0 +1,88 @@
+package gen.audio;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+//	Consumer side of the ring, runs in its own thread and feeds the sink.
+//	A real time sink (the sound card) blocks in write(), that is what paces this thread.
+//	If the emulator is late the thread waits for it, only when the line is about to run out (less
+//	than SILENCE_BYTES left) silence is written, so the line never starves.
+public class AudioOutput implements Runnable {
+
+	static final int CHUNK_SAMPLES = 512 * 2;	//	512 stereo frames
+	static final int SILENCE_BYTES = 256 * 2;	//	128 stereo frames, ~3ms
+
+	final AudioRing ring;
+	final AudioSink sink;
+	final byte[] chunk = new byte[CHUNK_SAMPLES * 2];
+
+	volatile boolean running;
+	volatile long underruns;
+
+	Thread thread;
+
+	public AudioOutput(AudioRing ring, AudioSink sink) {
+		this.ring = ring;
+		this.sink = sink;
+	}
+
+	public void start(int sampleRate) throws IOException {
+		sink.open(sampleRate);
+		running = true;
+		thread = new Thread(this, "audio-output");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		running = false;
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+		try {
+			sink.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public long getUnderruns() {
+		return underruns;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				int samples = ring.read(chunk, 0, CHUNK_SAMPLES);
+				if (samples > 0) {
+					sink.write(chunk, samples * 2);
+
+				} else if (sink.isRealTime() && sink.buffered() < SILENCE_BYTES) {
+					underruns++;
+					Arrays.fill(chunk, 0, SILENCE_BYTES, (byte) 0);
+					sink.write(chunk, SILENCE_BYTES);
+
+				} else {
+					LockSupport.parkNanos(1_000_000);
+				}
+			}
+
+			//	lo que quedo en el ring (cerrando un wav, por ejemplo)
+			int samples;
+			while ((samples = ring.read(chunk, 0, CHUNK_SAMPLES)) > 0) {
+				sink.write(chunk, samples * 2);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			running = false;
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+package gen.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+//	Single producer / single consumer ring of interleaved 16 bit stereo samples.
+//	The emulation thread is the only writer and the output thread the only reader,
+//	so each side owns its own counter and only publishes it with an ordered store,
+//	no locks and no allocation on either side.
+public class AudioRing {
+
+	final short[] buffer;
+	final int mask;
+
+	//	total samples written / read since creation, never wrap in practice
+	final AtomicLong head = new AtomicLong();
+	final AtomicLong tail = new AtomicLong();
+
+	//	capacity in samples (one stereo frame = 2 samples), rounded up to a power of two
+	public AudioRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		buffer = new short[size];
+		mask = size - 1;
+	}
+
+	public int capacity() {
+		return buffer.length;
+	}
+
+	public int available() {
+		return (int) (head.get() - tail.get());
+	}
+
+	//	returns how many samples fit, the rest is dropped (the consumer fell behind)
+	public int write(short[] data, int offset, int length) {
+		long h = head.get();
+		int free = buffer.length - (int) (h - tail.get());
+		int count = Math.min(free, length);
+
+		for (int i = 0; i < count; i++) {
+			buffer[(int) (h + i) & mask] = data[offset + i];
+		}
+		head.lazySet(h + count);
+
+		return count;
+	}
+
+	//	little endian PCM, ready for a SourceDataLine or a wav file
+	public int read(byte[] data, int offset, int samples) {
+		long t = tail.get();
+		int count = Math.min((int) (head.get() - t), samples);
+
+		for (int i = 0; i < count; i++) {
+			short s = buffer[(int) (t + i) & mask];
+			data[offset + (i * 2)] = (byte) s;
+			data[offset + (i * 2) + 1] = (byte) (s >> 8);
+		}
+		tail.lazySet(t + count);
+
+		return count;
+	}
+
+	public void clear() {
+		tail.set(head.get());
+	}
+
+}
@@ -0,0 +1,22 @@
+package gen.audio;
+
+import java.io.IOException;
+
+//	Where the mixed audio ends: the sound card, a file, or nowhere.
+//	Always 16 bit signed little endian stereo.
+public interface AudioSink {
+
+	void open(int sampleRate) throws IOException;
+
+	//	length in bytes, blocks until the sink accepted them
+	void write(byte[] data, int length) throws IOException;
+
+	void close() throws IOException;
+
+	//	true if write() paces itself with a real clock (the sound card does, a file does not)
+	boolean isRealTime();
+
+	//	bytes written and not played yet, only a real time sink has them
+	int buffered();
+
+}
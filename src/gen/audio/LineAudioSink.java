@@ -0,0 +1,57 @@
+package gen.audio;
+
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+public class LineAudioSink implements AudioSink {
+
+	//	bytes kept in the sound card, small enough to not add latency
+	int lineBufferSize;
+
+	SourceDataLine line;
+
+	public LineAudioSink(int lineBufferSize) {
+		this.lineBufferSize = lineBufferSize;
+	}
+
+	@Override
+	public void open(int sampleRate) throws IOException {
+		AudioFormat format = new AudioFormat(sampleRate, 16, 2, true, false);
+		try {
+			line = AudioSystem.getSourceDataLine(format);
+			line.open(format, lineBufferSize);
+			line.start();
+		} catch (LineUnavailableException | IllegalArgumentException e) {
+			throw new IOException("Audio line not available", e);
+		}
+	}
+
+	@Override
+	public void write(byte[] data, int length) {
+		line.write(data, 0, length);
+	}
+
+	@Override
+	public void close() {
+		if (line != null) {
+			line.drain();
+			line.close();
+			line = null;
+		}
+	}
+
+	@Override
+	public boolean isRealTime() {
+		return true;
+	}
+
+	@Override
+	public int buffered() {
+		return line.getBufferSize() - line.available();
+	}
+
+}
@@ -0,0 +1,28 @@
+package gen.audio;
+
+//	Headless runs, the samples are thrown away
+public class NullAudioSink implements AudioSink {
+
+	@Override
+	public void open(int sampleRate) {
+	}
+
+	@Override
+	public void write(byte[] data, int length) {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public boolean isRealTime() {
+		return false;
+	}
+
+	@Override
+	public int buffered() {
+		return 0;
+	}
+
+}
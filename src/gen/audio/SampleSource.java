@@ -0,0 +1,11 @@
+package gen.audio;
+
+//	A sound chip (YM2612, SN76489) seen from the mixer.
+//	The mixer asks for a number of stereo samples at the output rate, the source
+//	adds its contribution to the buffers (the buffers already hold what the other
+//	sources rendered, so never overwrite them).
+public interface SampleSource {
+
+	void render(int[] left, int[] right, int samples);
+
+}
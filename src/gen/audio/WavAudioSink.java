@@ -0,0 +1,84 @@
+package gen.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+//	http://soundfile.sapp.org/doc/WaveFormat/
+//	The sizes in the header are unknown until the end, they are patched on close()
+public class WavAudioSink implements AudioSink {
+
+	File file;
+	RandomAccessFile out;
+	long dataBytes;
+
+	public WavAudioSink(File file) {
+		this.file = file;
+	}
+
+	@Override
+	public void open(int sampleRate) throws IOException {
+		out = new RandomAccessFile(file, "rw");
+		out.setLength(0);
+		dataBytes = 0;
+
+		int channels = 2;
+		int bits = 16;
+
+		out.writeBytes("RIFF");
+		writeIntLE(0);						//	ChunkSize, patched
+		out.writeBytes("WAVE");
+		out.writeBytes("fmt ");
+		writeIntLE(16);						//	Subchunk1Size for PCM
+		writeShortLE(1);					//	AudioFormat PCM
+		writeShortLE(channels);
+		writeIntLE(sampleRate);
+		writeIntLE(sampleRate * channels * bits / 8);	//	ByteRate
+		writeShortLE(channels * bits / 8);				//	BlockAlign
+		writeShortLE(bits);
+		out.writeBytes("data");
+		writeIntLE(0);						//	Subchunk2Size, patched
+	}
+
+	@Override
+	public void write(byte[] data, int length) throws IOException {
+		out.write(data, 0, length);
+		dataBytes += length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out == null) {
+			return;
+		}
+		out.seek(4);
+		writeIntLE((int) (36 + dataBytes));
+		out.seek(40);
+		writeIntLE((int) dataBytes);
+		out.close();
+		out = null;
+	}
+
+	@Override
+	public boolean isRealTime() {
+		return false;
+	}
+
+	@Override
+	public int buffered() {
+		return 0;
+	}
+
+	private void writeIntLE(int v) throws IOException {
+		out.write(v & 0xFF);
+		out.write((v >> 8) & 0xFF);
+		out.write((v >> 16) & 0xFF);
+		out.write((v >> 24) & 0xFF);
+	}
+
+	private void writeShortLE(int v) throws IOException {
+		out.write(v & 0xFF);
+		out.write((v >> 8) & 0xFF);
+	}
+
+}
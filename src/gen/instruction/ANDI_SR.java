@@ -64,7 +64,7 @@ public class ANDI_SR implements GenInstructionHandler {
 	 	int oldSR = cpu.SR;
 	 	
 		long res = cpu.SR & toAnd;
-		cpu.SR = (int) res;
+		cpu.setSR((int) res);
 		
 		if (((oldSR & 0x2000) ^ (res & 0x2000)) != 0) {	//	si cambio el supervisor bit
 			if ((res & 0x2000) == 0x2000) {
@@ -64,7 +64,7 @@ public class EORI_SR implements GenInstructionHandler {
 	 	
 	 	long res = cpu.SR ^ data;
 		res &= 0xFFFF;
-		cpu.SR = (int) res;
+		cpu.setSR((int) res);
 	 	
 		if (((oldSR & 0x2000) ^ (res & 0x2000)) != 0) {	//	si cambio el supervisor bit
 			if ((res & 0x2000) == 0x2000) {
@@ -102,7 +102,7 @@ public class MOVE_TO_SR implements GenInstructionHandler {
 		
 		Operation o = cpu.resolveAddressingMode(OperationSize.WORD, mode, register);
 		long data = o.getAddressingMode().getWord(o);
-		cpu.SR = (int) data;
+		cpu.setSR((int) data);
 		
 		if (((oldSR & 0x2000) ^ (data & 0x2000)) != 0) {	//	si cambio el supervisor bit
 			if ((data & 0x2000) == 0x2000) {
@@ -51,7 +51,7 @@ public class RTE implements GenInstructionHandler {
 		long SR = cpu.bus.read(cpu.SSP, OperationSize.WORD);
 		cpu.SSP += 2;
 		
-		cpu.SR = (int) SR;
+		cpu.setSR((int) SR);
 		
 		long newPC;
 		newPC = cpu.bus.read(cpu.SSP, OperationSize.LONG);
@@ -67,7 +67,7 @@ public class STOP implements GenInstructionHandler {
 	 		throw new RuntimeException("VIOLATION !");
 	 	}
 	 	
-	 	cpu.SR = (int) (data & 0xFFFF);
+	 	cpu.setSR((int) (data & 0xFFFF));
 	 	cpu.stop = true;
 	}
 
@@ -2,7 +2,6 @@ package gen.instruction;
 
 import gen.M68000;
 import gen.Instruction;
-import gen.OperationSize;
 
 public class TRAP implements GenInstructionHandler {
 
@@ -45,7 +44,7 @@ public class TRAP implements GenInstructionHandler {
 			
 		};
 		
-		for (int trap = 0; trap < 8; trap++) {
+		for (int trap = 0; trap < 16; trap++) {
 			int opcode = base | trap;
 			cpu.addInstruction(opcode, ins);
 		}
@@ -53,35 +52,11 @@ public class TRAP implements GenInstructionHandler {
 	}
 	
 	private void TRAP_OP(int opcode) {
-int trap = opcode & 0x7;
+		int trap = opcode & 0xF;
 		
-		long oldPC = cpu.PC + 2;
-		int oldSR = cpu.SR;
+		cpu.bus.interrupts.trap(trap, cpu.PC + 2);
 		
-		if ((cpu.SR & 0x2000) == 0) {
-			cpu.SR = cpu.SR | 0x2000;
-		}
-		
-		cpu.SSP--;
-		cpu.bus.write(cpu.SSP, oldPC & 0xFF, OperationSize.BYTE);
-		cpu.SSP--;
-		cpu.bus.write(cpu.SSP, (oldPC >> 8) & 0xFF, OperationSize.BYTE);
-		cpu.SSP--;
-		cpu.bus.write(cpu.SSP, (oldPC >> 16) & 0xFF, OperationSize.BYTE);
-		cpu.SSP--;
-		cpu.bus.write(cpu.SSP, (oldPC >> 24), OperationSize.BYTE);
-		
-		cpu.SSP--;
-		cpu.bus.write(cpu.SSP, (oldSR & 0xFF), OperationSize.BYTE);
-		cpu.SSP--;
-		cpu.bus.write(cpu.SSP, (oldSR >> 8), OperationSize.BYTE);
-		
-		cpu.setALong(7, cpu.SSP);
-		
-		long vector = 0x80 + (trap * 4);
-		long newPC = cpu.bus.readInterruptVector(vector);
-		
-		cpu.PC = newPC - 2;
+		cpu.PC -= 2;
 	}
 
 }
@@ -0,0 +1,19 @@
+package gen.telemetry;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("gen.BankSwitch")
+@Label("Bank switch")
+@Category("Genefusto")
+public class BankSwitchEvent extends Event {
+
+	@Label("Bank")
+	public int bank;
+
+	@Label("Page")
+	public int page;
+
+}
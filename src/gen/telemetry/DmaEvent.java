@@ -0,0 +1,28 @@
+package gen.telemetry;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("gen.Dma")
+@Label("DMA")
+@Category("Genefusto")
+@Description("Start of a VDP DMA, memory to VRAM/CRAM/VSRAM or VRAM fill")
+public class DmaEvent extends Event {
+
+	@Label("Mode")
+	public String mode;
+
+	@Label("Length")
+	@Description("Words for memory to VRAM, bytes for a fill")
+	public int length;
+
+	@Label("Source")
+	public long source;
+
+	@Label("Source region")
+	public String region;
+
+}
@@ -0,0 +1,20 @@
+package gen.telemetry;
+
+//	gen:type=Genefusto, averages over the last second of frames
+public interface EmulatorMXBean {
+
+	long getFrames();
+
+	double getCpuInstructionsPerFrame();
+
+	double getZ80InstructionsPerFrame();
+
+	long getIdleLoopSkips();
+
+	long getDroppedFrames();
+
+	long getAudioUnderruns();
+
+	double getSpeed();
+
+}
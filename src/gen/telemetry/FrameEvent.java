@@ -0,0 +1,24 @@
+package gen.telemetry;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("gen.Frame")
+@Label("Frame")
+@Category("Genefusto")
+@Description("One emulated frame, up to VINT")
+public class FrameEvent extends Event {
+
+	@Label("Frame")
+	public long frame;
+
+	@Label("68000 instructions")
+	public long cpuInstructions;
+
+	@Label("Z80 instructions")
+	public long z80Instructions;
+
+}
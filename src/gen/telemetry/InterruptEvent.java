@@ -0,0 +1,22 @@
+package gen.telemetry;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("gen.Interrupt")
+@Label("Interrupt")
+@Category("Genefusto")
+public class InterruptEvent extends Event {
+
+	@Label("Level")
+	public int level;
+
+	@Label("Interrupted PC")
+	public long pc;
+
+	@Label("Handler")
+	public long handler;
+
+}
@@ -0,0 +1,26 @@
+package gen.telemetry;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("gen.State")
+@Label("Save state")
+@Category("Genefusto")
+@Description("A save state taken or loaded: quick save, rewind, run ahead, forks")
+public class StateEvent extends Event {
+
+	@Label("Operation")
+	public String operation;
+
+	@Label("Size")
+	@DataAmount
+	public int bytes;
+
+	@Label("Core only")
+	public boolean core;
+
+}